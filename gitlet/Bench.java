@@ -0,0 +1,207 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+
+/** A benchmarking class whose main program may be invoked as follows:
+ *      java gitlet.Bench BENCHMARK ARGS...
+ *  where BENCHMARK names one of the measurements below.  Each prints its
+ *  results on System.out.  These are for tuning only; nothing in gitlet
+ *  depends on them.
+ *
+ *      blobs DIR    Compare the old String blob pipeline against the byte
+ *                   pipeline on every file under DIR: read, hash, and write
+ *                   back out.  Reports throughput and the number of files
+ *                   the String pipeline does not reproduce exactly.
+ *
+ *      codec DIR    Build a commit and a stage holding every file under
+ *                   DIR and compare Java serialization against the binary
+ *                   encodings: size, raw and deflated, and decode time.
+ *
+ *      walk DIR     List every file under DIR with a sequential walk and
+ *                   with the parallel working-tree scanner.
+ *
+ *  @author Austin Nicola Ardisaputra
+ */
+public class Bench {
+
+    /** Number of timed passes over the data in each benchmark. */
+    private static final int PASSES = 5;
+
+    /** Run the benchmark named by ARGS[0] with the remaining ARGS. */
+    public static void main(String... args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: java gitlet.Bench BENCHMARK ARGS...");
+            return;
+        }
+        switch (args[0]) {
+        case "blobs":
+            blobs(new File(args[1]));
+            break;
+        case "codec":
+            codec(new File(args[1]));
+            break;
+        case "walk":
+            walk(new File(args[1]));
+            break;
+        default:
+            System.out.println("No benchmark with that name exists.");
+        }
+    }
+
+    /** Time reading, hashing and writing back every file under DIR, first
+     *  through Strings as gitlet used to and then as raw bytes. */
+    static void blobs(File dir) throws IOException {
+        List<File> files = filesUnder(dir);
+        File out = File.createTempFile("bench", ".blob");
+        out.deleteOnExit();
+        long bytes = 0;
+        int corrupted = 0;
+        for (File file : files) {
+            bytes += file.length();
+            byte[] data = Utils.readContents(file);
+            String text = new String(data, StandardCharsets.UTF_8);
+            if (!Arrays.equals(data,
+                               text.getBytes(StandardCharsets.UTF_8))) {
+                corrupted += 1;
+            }
+        }
+        long stringTime = Long.MAX_VALUE, byteTime = Long.MAX_VALUE;
+        for (int pass = 0; pass < PASSES; pass += 1) {
+            long start = System.nanoTime();
+            for (File file : files) {
+                String content = Utils.readContentsAsString(file);
+                Utils.sha1("blob", content);
+                Utils.writeContents(out, content);
+            }
+            long mid = System.nanoTime();
+            for (File file : files) {
+                byte[] content = Utils.readContents(file);
+                Blob.hashOf(content);
+                Utils.writeContents(out, content);
+            }
+            long end = System.nanoTime();
+            stringTime = Math.min(stringTime, mid - start);
+            byteTime = Math.min(byteTime, end - mid);
+        }
+        System.out.printf("%d files, %.1f MB, %d not valid UTF-8%n",
+                          files.size(), bytes / 1e6, corrupted);
+        System.out.printf("String pipeline: %8.1f MB/s%n",
+                          bytes / 1e3 / (stringTime / 1e6));
+        System.out.printf("byte pipeline:   %8.1f MB/s (%.2fx)%n",
+                          bytes / 1e3 / (byteTime / 1e6),
+                          (double) stringTime / byteTime);
+    }
+
+    /** Compare serialized and encoded commits and stages listing every
+     *  file under DIR. */
+    static void codec(File dir) throws IOException {
+        List<File> files = filesUnder(dir);
+        Commit commit = new Commit("benchmark", Utils.sha1("parent"));
+        Stage stage = new Stage();
+        for (File file : files) {
+            String path = dir.toPath().relativize(file.toPath()).toString();
+            String id = Blob.hashOf(Utils.readContents(file));
+            commit.addBlob(path, id);
+            stage.addToAddStage(path, id);
+        }
+        System.out.printf("%d files%n", files.size());
+        codecRow("commit", Utils.serialize(commit), commit.encode(),
+                 data -> Utils.deserialize(data, Commit.class),
+                 Commit::decode);
+        codecRow("stage", Utils.serialize(stage), stage.encode(),
+                 data -> Utils.deserialize(data, Stage.class),
+                 Stage::decode);
+    }
+
+    /** Print the sizes of SERIALIZED and ENCODED, which hold the same
+     *  object called NAME, and the time taken to decode each of them with
+     *  READOLD and READNEW respectively. */
+    private static void codecRow(String name, byte[] serialized,
+                                 byte[] encoded,
+                                 Function<byte[], Object> readOld,
+                                 Function<byte[], Object> readNew) {
+        int reps = Math.max(1, DECODE_BYTES / serialized.length);
+        long oldTime = Long.MAX_VALUE, newTime = Long.MAX_VALUE;
+        for (int pass = 0; pass < PASSES; pass += 1) {
+            long start = System.nanoTime();
+            for (int k = 0; k < reps; k += 1) {
+                readOld.apply(serialized);
+            }
+            long mid = System.nanoTime();
+            for (int k = 0; k < reps; k += 1) {
+                readNew.apply(encoded);
+            }
+            long end = System.nanoTime();
+            oldTime = Math.min(oldTime, mid - start);
+            newTime = Math.min(newTime, end - mid);
+        }
+        System.out.printf("%s serialized: %9d bytes, %9d deflated, "
+                          + "%10.1f us/decode%n", name, serialized.length,
+                          deflatedSize(serialized), oldTime / 1e3 / reps);
+        System.out.printf("%s encoded:    %9d bytes, %9d deflated, "
+                          + "%10.1f us/decode (%.2fx)%n", name,
+                          encoded.length, deflatedSize(encoded),
+                          newTime / 1e3 / reps,
+                          (double) oldTime / newTime);
+    }
+
+    /** Return the length of DATA deflated as gitlet stores objects. */
+    private static int deflatedSize(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] buf = new byte[1 << 16];
+        int size = 0;
+        while (!deflater.finished()) {
+            size += deflater.deflate(buf);
+        }
+        deflater.end();
+        return size;
+    }
+
+    /** Approximate number of serialized bytes decoded per timed pass. */
+    private static final int DECODE_BYTES = 64 << 20;
+
+    /** Time listing the files under DIR sequentially and with WorkTree. */
+    static void walk(File dir) throws IOException {
+        long seqTime = Long.MAX_VALUE, parTime = Long.MAX_VALUE;
+        int seqCount = 0, parCount = 0;
+        for (int pass = 0; pass < PASSES; pass += 1) {
+            long start = System.nanoTime();
+            seqCount = filesUnder(dir).size();
+            long mid = System.nanoTime();
+            parCount = new WorkTree(dir).files().size();
+            long end = System.nanoTime();
+            seqTime = Math.min(seqTime, mid - start);
+            parTime = Math.min(parTime, end - mid);
+        }
+        System.out.printf("sequential walk: %d files, %8.1f ms%n",
+                          seqCount, seqTime / 1e6);
+        System.out.printf("WorkTree:        %d files, %8.1f ms (%.2fx, "
+                          + "parallelism %d)%n", parCount, parTime / 1e6,
+                          (double) seqTime / parTime,
+                          ForkJoinPool.commonPool().getParallelism());
+    }
+
+    /** Return the plain files under DIR, skipping .gitlet directories. */
+    static List<File> filesUnder(File dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            return paths.filter(Files::isRegularFile)
+                .filter(p -> !p.toString().contains(".gitlet"))
+                .map(Path::toFile)
+                .collect(Collectors.toCollection(ArrayList::new));
+        }
+    }
+}
@@ -1,23 +1,48 @@
 package gitlet;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 
 public class Blob implements Serializable, Hashable {
 
-    /** String content of file. */
+    /** Serialization version, fixed so that blobs written before _bytes
+     *  was introduced can still be read. */
+    private static final long serialVersionUID = 1957879219606189098L;
+
+    /** Byte content of file. */
+    private byte[] _bytes;
+
+    /** String content of file, as stored by older versions; null in blobs
+     *  written since. */
     private String _content;
 
-    public String content() {
-        return _content;
+    public byte[] content() {
+        return _bytes;
     }
 
-    public Blob(String content) {
-        this._content = content;
+    public Blob(byte[] content) {
+        this._bytes = content;
     }
 
     @Override
     public String hash() {
-        String[] toHash = new String[]{"blob", content()};
-        return Utils.sha1((Object[]) toHash);
+        return hashOf(_bytes);
+    }
+
+    /** Return the id of a blob with content CONTENT. */
+    static String hashOf(byte[] content) {
+        return Utils.sha1("blob", content);
+    }
+
+    /** Read this blob from IN, converting the older String form. */
+    private void readObject(ObjectInputStream in)
+        throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (_bytes == null && _content != null) {
+            _bytes = _content.getBytes(StandardCharsets.UTF_8);
+            _content = null;
+        }
     }
 }
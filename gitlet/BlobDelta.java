@@ -0,0 +1,138 @@
+package gitlet;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/** A blob stored as a line edit script against an earlier blob, its base.
+ *  The edit script is the one produced by Diff.diffs(), applied to the
+ *  lines of the base, with the replacement lines stored alongside it.
+ *  Lines are held as ISO-8859-1 strings, which map each byte to one
+ *  character, so that arbitrary content survives the round trip exactly.
+ *  @author Austin Nicola Ardisaputra
+ */
+class BlobDelta implements Serializable {
+
+    /** Longest chain of deltas allowed before a full blob is stored. */
+    static final int MAX_DEPTH = 10;
+
+    /** Largest table, in cells, that Diff may build to compute a delta.
+     *  Diff needs a table of (lines1 + 1) * (lines2 + 1) ints. */
+    static final long MAX_DIFF_CELLS = 4_000_000;
+
+    /** A delta against BASE, DEPTH deltas deep, with edit script EDITS and
+     *  replacement lines LINES. */
+    private BlobDelta(String base, int depth, int[] edits, String[] lines) {
+        _base = base;
+        _depth = depth;
+        _edits = edits;
+        _lines = lines;
+    }
+
+    /** Return the id of the base blob. */
+    String base() {
+        return _base;
+    }
+
+    /** Return the number of deltas between this one and a full blob,
+     *  counting this one. */
+    int depth() {
+        return _depth;
+    }
+
+    /** Return the content produced by applying this delta to BASECONTENT. */
+    byte[] apply(byte[] baseContent) {
+        List<String> base = lines(baseContent);
+        StringBuilder result = new StringBuilder(baseContent.length);
+        int pos = 0, added = 0;
+        for (int k = 0; k < _edits.length; k += 4) {
+            for (; pos < _edits[k]; pos += 1) {
+                result.append(base.get(pos));
+            }
+            pos += _edits[k + 1];
+            for (int i = 0; i < _edits[k + 3]; i += 1) {
+                result.append(_lines[added]);
+                added += 1;
+            }
+        }
+        for (; pos < base.size(); pos += 1) {
+            result.append(base.get(pos));
+        }
+        return result.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /** Return a delta that turns BASECONTENT, the content of blob BASE
+     *  whose own delta depth is BASEDEPTH, into CONTENT, or null if such
+     *  a delta would be too deep, too costly to compute, or not much
+     *  smaller than CONTENT itself. */
+    static BlobDelta make(String base, int baseDepth,
+                          byte[] baseContent, byte[] content) {
+        if (baseDepth >= MAX_DEPTH) {
+            return null;
+        }
+        List<String> lines1 = lines(baseContent), lines2 = lines(content);
+        int pre = 0;
+        while (pre < lines1.size() && pre < lines2.size()
+               && lines1.get(pre).equals(lines2.get(pre))) {
+            pre += 1;
+        }
+        int suf = 0;
+        while (suf < lines1.size() - pre && suf < lines2.size() - pre
+               && lines1.get(lines1.size() - 1 - suf)
+                  .equals(lines2.get(lines2.size() - 1 - suf))) {
+            suf += 1;
+        }
+        List<String> mid1 = lines1.subList(pre, lines1.size() - suf),
+            mid2 = lines2.subList(pre, lines2.size() - suf);
+        if ((long) (mid1.size() + 1) * (mid2.size() + 1) > MAX_DIFF_CELLS) {
+            return null;
+        }
+        Diff diff = new Diff();
+        diff.setSequences(mid1, mid2);
+        int[] edits = diff.diffs();
+        List<String> added = new ArrayList<>();
+        int addedChars = 0;
+        for (int k = 0; k < edits.length; k += 4) {
+            for (int i = 0; i < edits[k + 3]; i += 1) {
+                String line = mid2.get(edits[k + 2] + i);
+                added.add(line);
+                addedChars += line.length();
+            }
+            edits[k] += pre;
+            edits[k + 2] += pre;
+        }
+        if (addedChars + 16 * edits.length > content.length / 2) {
+            return null;
+        }
+        return new BlobDelta(base, baseDepth + 1, edits,
+                             added.toArray(new String[0]));
+    }
+
+    /** Return the lines of BYTES, each with its line terminator, so that
+     *  concatenating them yields BYTES exactly. */
+    static List<String> lines(byte[] bytes) {
+        String content = new String(bytes, StandardCharsets.ISO_8859_1);
+        List<String> result = new ArrayList<>();
+        int start = 0;
+        while (start < content.length()) {
+            int end = content.indexOf('\n', start);
+            end = end < 0 ? content.length() : end + 1;
+            result.add(content.substring(start, end));
+            start = end;
+        }
+        return result;
+    }
+
+    /** Id of the base blob. */
+    private final String _base;
+
+    /** Delta chain depth, counting this delta. */
+    private final int _depth;
+
+    /** Edit script in the form returned by Diff.diffs(). */
+    private final int[] _edits;
+
+    /** Replacement lines, in the order the edit script consumes them. */
+    private final String[] _lines;
+}
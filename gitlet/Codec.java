@@ -0,0 +1,177 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/** Helpers for the explicit binary encodings of gitlet's metadata
+ *  objects.  Integers are written as unsigned base-128 varints, strings
+ *  as a varint byte count followed by UTF-8, and object ids as their 20
+ *  raw bytes.  Every encoding starts with a three-byte magic number and a
+ *  version byte, so that readers can tell it from Java serialization,
+ *  whose streams start with 0xACED.
+ *  @author Austin Nicola Ardisaputra
+ */
+class Codec {
+
+    /** Return true iff DATA starts with MAGIC. */
+    static boolean hasMagic(byte[] data, byte[] magic) {
+        if (data.length < magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i += 1) {
+            if (data[i] != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** An encoder accumulating bytes in memory. */
+    static class Writer {
+
+        /** A writer whose output starts with MAGIC and VERSION. */
+        Writer(byte[] magic, int version) {
+            _out.write(magic, 0, magic.length);
+            _out.write(version);
+        }
+
+        /** A writer with no header, for records appended to a file that
+         *  has one. */
+        Writer() {
+        }
+
+        /** Append the unsigned varint N. */
+        Writer varint(int n) {
+            while ((n & ~0x7f) != 0) {
+                _out.write((n & 0x7f) | 0x80);
+                n >>>= 7;
+            }
+            _out.write(n);
+            return this;
+        }
+
+        /** Append the eight bytes of N, most significant first. */
+        Writer int64(long n) {
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                _out.write((int) (n >>> shift));
+            }
+            return this;
+        }
+
+        /** Append the string S. */
+        Writer string(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            varint(bytes.length);
+            _out.write(bytes, 0, bytes.length);
+            return this;
+        }
+
+        /** Append the hex object id ID as 20 raw bytes. */
+        Writer id(String id) {
+            for (int i = 0; i < id.length(); i += 2) {
+                _out.write(Character.digit(id.charAt(i), 16) << 4
+                           | Character.digit(id.charAt(i + 1), 16));
+            }
+            return this;
+        }
+
+        /** Return the bytes written so far. */
+        byte[] toByteArray() {
+            return _out.toByteArray();
+        }
+
+        /** Accumulated output. */
+        private final ByteArrayOutputStream _out = new ByteArrayOutputStream();
+    }
+
+    /** A decoder reading directly from a byte array, without copying. */
+    static class Reader {
+
+        /** A reader over DATA, which must start with MAGIC.  Throws
+         *  IllegalArgumentException if it does not. */
+        Reader(byte[] data, byte[] magic) {
+            if (!hasMagic(data, magic)) {
+                throw new IllegalArgumentException("bad magic number");
+            }
+            _data = data;
+            _pos = magic.length;
+            _version = data[_pos++];
+        }
+
+        /** A reader over the headerless record in DATA starting at POS. */
+        Reader(byte[] data, int pos) {
+            _data = data;
+            _pos = pos;
+            _version = 0;
+        }
+
+        /** Return the version byte that followed the magic number. */
+        int version() {
+            return _version;
+        }
+
+        /** Read an unsigned varint. */
+        int varint() {
+            int result = 0;
+            for (int shift = 0;; shift += 7) {
+                byte b = _data[_pos++];
+                result |= (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return result;
+                }
+            }
+        }
+
+        /** Read a four-byte integer. */
+        int int32() {
+            int result = 0;
+            for (int i = 0; i < 4; i += 1) {
+                result = (result << 8) | (_data[_pos++] & 0xff);
+            }
+            return result;
+        }
+
+        /** Return the position of the next byte to read. */
+        int position() {
+            return _pos;
+        }
+
+        /** Read an eight-byte integer. */
+        long int64() {
+            long result = 0;
+            for (int i = 0; i < 8; i += 1) {
+                result = (result << 8) | (_data[_pos++] & 0xff);
+            }
+            return result;
+        }
+
+        /** Read a string. */
+        String string() {
+            int len = varint();
+            String result = new String(_data, _pos, len,
+                                       StandardCharsets.UTF_8);
+            _pos += len;
+            return result;
+        }
+
+        /** Read a 20-byte object id, returning it in hex. */
+        String id() {
+            char[] hex = new char[2 * PackFile.ID_BYTES];
+            for (int i = 0; i < hex.length; i += 2) {
+                int b = _data[_pos++];
+                hex[i] = Character.forDigit((b >> 4) & 0xf, 16);
+                hex[i + 1] = Character.forDigit(b & 0xf, 16);
+            }
+            return new String(hex);
+        }
+
+        /** The encoded data. */
+        private final byte[] _data;
+
+        /** Position of the next byte to read. */
+        private int _pos;
+
+        /** Encoding version. */
+        private final int _version;
+    }
+}
@@ -3,10 +3,27 @@ package gitlet;
 import java.io.Serializable;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Map;
 import java.util.TreeMap;
 
 public class Commit implements Serializable, Hashable {
 
+    /** Fixed so that commits serialized before the binary encoding was
+     *  introduced can still be read. */
+    private static final long serialVersionUID = -6944224101085340173L;
+
+    /** Leading bytes of an encoded commit. */
+    static final byte[] MAGIC = { 'G', 'C', 'M' };
+
+    /** Current version of the commit encoding, which refers to a tree. */
+    static final int VERSION = 2;
+
+    /** Version of the commit encoding that lists every file. */
+    static final int FLAT_VERSION = 1;
+
+    /** Prefix hashed before the encoding to form a commit's id. */
+    private static final String HASH_PREFIX = "commit";
+
     /** Message of commit. */
     private final String _msg;
 
@@ -22,9 +39,18 @@ public class Commit implements Serializable, Hashable {
     /** Secondary parent of commit. */
     private String _parent2 = "";
 
-    /** Map of files to blobs of commit. */
+    /** Map of files to blobs of commit, for commits made before trees
+     *  were introduced; null for commits with a tree. */
     private TreeMap<String, String> _blobs = new TreeMap<String, String>();
 
+    /** Id of the tree of this commit, or null if it has none.  Transient
+     *  so that the serialized form of older commits is unchanged. */
+    private transient String _tree;
+
+    /** Id of this commit, or null if not yet computed.  A commit must not
+     *  be changed once its id has been taken. */
+    private transient String _id;
+
     public String msg() {
         return _msg;
     }
@@ -45,16 +71,25 @@ public class Commit implements Serializable, Hashable {
         return _parent2;
     }
 
+    /** Return the map of files to blobs of a commit without a tree, or
+     *  null if the commit has a tree. */
     public TreeMap<String, String> getBlobs() {
         return _blobs;
     }
 
+    /** Return the id of this commit's tree, or null if it has none. */
+    String tree() {
+        return _tree;
+    }
+
     public void addBlob(String fileName, String blobHash) {
         _blobs.put(fileName, blobHash);
+        _id = null;
     }
 
     public void setParent2(String parent2) {
         this._parent2 = parent2;
+        _id = null;
     }
 
     public Commit(String msg, String parent1) {
@@ -72,25 +107,134 @@ public class Commit implements Serializable, Hashable {
         this._timeStamp = fmt.format(_timeStampDate);
     }
 
-    public void copyOver(Commit from) {
-        _blobs = new TreeMap<>(from.getBlobs());
+    /** A commit with message MSG, first parent PARENT1 and tree TREE. */
+    public Commit(String msg, String parent1, String tree) {
+        this(msg, parent1);
+        _blobs = null;
+        _tree = tree;
+    }
+
+    /** A commit with message MSG made at TIME milliseconds after the
+     *  epoch, with parents PARENT1 and PARENT2 and either files BLOBS or
+     *  tree TREE. */
+    private Commit(String msg, long time, String parent1, String parent2,
+                   TreeMap<String, String> blobs, String tree) {
+        _msg = msg;
+        _timeStampDate = new Date(time);
+        _timeStamp = stamp(time);
+        _parent1 = parent1;
+        _parent2 = parent2;
+        _blobs = blobs;
+        _tree = tree;
+    }
+
+    /** Return the binary encoding of this commit: its message, its time in
+     *  milliseconds, the number of parents and their 20-byte ids, and then
+     *  either its tree id or, for a commit without a tree, the number of
+     *  files followed by each path and blob id, in path order. */
+    byte[] encode() {
+        Codec.Writer out = new Codec.Writer(MAGIC,
+                                            _tree != null ? VERSION
+                                            : FLAT_VERSION);
+        out.string(_msg).int64(_timeStampDate.getTime());
+        if (_parent1.equals("")) {
+            out.varint(0);
+        } else if (_parent2.equals("")) {
+            out.varint(1).id(_parent1);
+        } else {
+            out.varint(2).id(_parent1).id(_parent2);
+        }
+        if (_tree != null) {
+            return out.id(_tree).toByteArray();
+        }
+        out.varint(_blobs.size());
+        for (Map.Entry<String, String> entry : _blobs.entrySet()) {
+            out.string(entry.getKey()).id(entry.getValue());
+        }
+        return out.toByteArray();
+    }
+
+    /** Return the commit encoded in DATA by encode.  Throws a
+     *  GitletException if DATA is cut short. */
+    static Commit decode(byte[] data) {
+        Codec.Reader in = new Codec.Reader(data, MAGIC);
+        if (in.version() != VERSION && in.version() != FLAT_VERSION) {
+            throw Utils.error("Unsupported commit version %d.", in.version());
+        }
+        try {
+            String msg = in.string();
+            long time = in.int64();
+            int parents = in.varint();
+            String parent1 = parents > 0 ? in.id() : "";
+            String parent2 = parents > 1 ? in.id() : "";
+            if (in.version() == VERSION) {
+                return new Commit(msg, time, parent1, parent2, null, in.id());
+            }
+            TreeMap<String, String> blobs = new TreeMap<>();
+            for (int n = in.varint(); n > 0; n -= 1) {
+                String path = in.string();
+                blobs.put(path, in.id());
+            }
+            return new Commit(msg, time, parent1, parent2, blobs, null);
+        } catch (IndexOutOfBoundsException excp) {
+            throw Utils.error("Corrupt commit.");
+        }
+    }
+
+    /** Record that this commit is stored under ID, so that hash need not
+     *  recompute it. */
+    void setId(String id) {
+        _id = id;
+    }
+
+    /** Return true iff ID is a valid id for this commit's content: either
+     *  its canonical id, or the id older versions computed by hashing the
+     *  serialized commit.  The latter can only be checked for commits
+     *  decoded in the time zone they were made in, since the serialized
+     *  form includes the formatted timestamp. */
+    boolean hasId(String id) {
+        return id.equals(Utils.sha1(HASH_PREFIX, encode()))
+            || id.equals(Utils.sha1(Utils.serialize(this)));
     }
 
     @Override
     public String hash() {
-        return Utils.sha1(Utils.serialize(this));
+        if (_id == null) {
+            _id = Utils.sha1(HASH_PREFIX, encode());
+        }
+        return _id;
     }
 
     @Override
     public String toString() {
-        String result = "===" + "\n" + "commit " + hash();
-        if (!(_parent2.equals(""))) {
-            result += ("\n" + "Merge: " + parent1().substring(0, 7) + " "
-                    + _parent2.substring(0, 7));
+        return describe(hash(), _parent1, _parent2, timeStamp(), msg());
+    }
+
+    /** Return the log entry of the commit ID with parents PARENT1 and
+     *  PARENT2, made at time STAMP as formatted by stamp, with message
+     *  MSG. */
+    static String describe(String id, String parent1, String parent2,
+                           String stamp, String msg) {
+        String result = "===" + "\n" + "commit " + id;
+        if (!(parent2.equals(""))) {
+            result += ("\n" + "Merge: " + parent1.substring(0, 7) + " "
+                    + parent2.substring(0, 7));
         }
         return result
                 + "\n" + "Date: "
-                + timeStamp() + " -0800"
-                + "\n" + msg() + "\n";
+                + stamp + " -0800"
+                + "\n" + msg + "\n";
     }
+
+    /** Return TIME, in milliseconds since the epoch, formatted as in
+     *  commit timestamps. */
+    static String stamp(long time) {
+        return STAMP_FORMAT.get().format(new Date(time));
+    }
+
+    /** Format of commit timestamps, one per thread as SimpleDateFormat is
+     *  not thread-safe. */
+    private static final ThreadLocal<SimpleDateFormat> STAMP_FORMAT =
+        ThreadLocal.withInitial(() ->
+            new SimpleDateFormat("EEE MMM dd HH:mm:ss yyyy"));
 }
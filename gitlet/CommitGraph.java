@@ -0,0 +1,218 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/** The commit graph: a table holding, for every commit, its id, the
+ *  positions of its parents in the table, its commit time, and its
+ *  generation number (one more than the largest generation of its
+ *  parents; 1 for the initial commit).  Records are fixed-width and
+ *  appended in an order where parents always come before their children,
+ *  so the file can be memory-mapped and history walked by position
+ *  without reading any commit objects.
+ *  @author Austin Nicola Ardisaputra
+ */
+class CommitGraph {
+
+    /** Magic number at the start of a graph file. */
+    static final int MAGIC = 0x47434752;
+
+    /** Current format version. */
+    static final int VERSION = 1;
+
+    /** Parent position meaning "no parent". */
+    static final int NONE = -1;
+
+    /** Size of the header: magic and version. */
+    private static final int HEADER = 8;
+
+    /** Size of one record: id, two parent positions, time, generation. */
+    private static final int RECORD = PackFile.ID_BYTES + 4 + 4 + 8 + 4;
+
+    /** A graph stored in FILE for the commits in STORE.  If FILE does not
+     *  exist, it is built from all of STORE's commits on first use. */
+    CommitGraph(File file, ObjectStore store) {
+        _file = file;
+        _store = store;
+    }
+
+    /** Return the number of commits in the graph. */
+    int size() {
+        load();
+        return _count;
+    }
+
+    /** Return the position of commit ID, adding it (and any missing
+     *  ancestors) from the object store if the graph lacks it. */
+    int find(String id) {
+        load();
+        Integer k = _positions.get(id);
+        return k != null ? k : addWithAncestors(id);
+    }
+
+    /** Return the hex id of the commit at position K. */
+    String id(int k) {
+        byte[] id = new byte[PackFile.ID_BYTES];
+        map().get(HEADER + k * RECORD, id);
+        return Utils.bytesToHex(id);
+    }
+
+    /** Return the position of the first parent of commit K, or NONE. */
+    int parent1(int k) {
+        return map().getInt(HEADER + k * RECORD + PackFile.ID_BYTES);
+    }
+
+    /** Return the position of the second parent of commit K, or NONE. */
+    int parent2(int k) {
+        return map().getInt(HEADER + k * RECORD + PackFile.ID_BYTES + 4);
+    }
+
+    /** Return the commit time of commit K in milliseconds since the epoch. */
+    long time(int k) {
+        return map().getLong(HEADER + k * RECORD + PackFile.ID_BYTES + 8);
+    }
+
+    /** Return the generation number of commit K. */
+    int generation(int k) {
+        return map().getInt(HEADER + k * RECORD + PackFile.ID_BYTES + 16);
+    }
+
+    /** Record COMMIT, whose id is ID, adding any of its ancestors that are
+     *  missing first, and return its position. */
+    int add(String id, Commit commit) {
+        load();
+        Integer known = _positions.get(id);
+        if (known != null) {
+            return known;
+        }
+        int p1 = parentPosition(commit.parent1()),
+            p2 = parentPosition(commit.parent2());
+        int gen = 1 + Math.max(p1 == NONE ? 0 : generation(p1),
+                               p2 == NONE ? 0 : generation(p2));
+        ByteBuffer rec = ByteBuffer.allocate(RECORD);
+        rec.put(Utils.hexToBytes(id)).putInt(p1).putInt(p2)
+            .putLong(commit.timeStampDate().getTime()).putInt(gen);
+        rec.flip();
+        try (FileChannel ch = FileChannel.open(_file.toPath(),
+                 StandardOpenOption.WRITE)) {
+            ch.write(rec, HEADER + (long) _count * RECORD);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot update %s.", _file.getName());
+        }
+        _positions.put(id, _count);
+        _count += 1;
+        _map = null;
+        return _count - 1;
+    }
+
+    /** Return the position of the parent PARENT, adding it if needed, or
+     *  NONE if PARENT is empty. */
+    private int parentPosition(String parent) {
+        return parent.equals("") ? NONE : find(parent);
+    }
+
+    /** Read the graph, building it first if the file does not exist. */
+    private void load() {
+        if (_positions != null) {
+            return;
+        }
+        _positions = new HashMap<>();
+        if (!_file.exists()) {
+            create();
+            return;
+        }
+        long length = _file.length();
+        _count = (int) ((length - HEADER) / RECORD);
+        if (map().getInt(0) != MAGIC || map().getInt(4) != VERSION) {
+            throw Utils.error("Bad commit graph.");
+        }
+        for (int k = 0; k < _count; k += 1) {
+            _positions.put(id(k), k);
+        }
+    }
+
+    /** Create the graph file and add every commit in the store, parents
+     *  before children. */
+    private void create() {
+        ByteBuffer head = ByteBuffer.allocate(HEADER);
+        head.putInt(MAGIC).putInt(VERSION).flip();
+        try (FileChannel ch = FileChannel.open(_file.toPath(),
+                 StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            ch.write(head);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot create %s.", _file.getName());
+        }
+        _count = 0;
+        List<String> ids = _store.ids(ObjectStore.COMMIT);
+        ids.sort(null);
+        for (String id : ids) {
+            addWithAncestors(id);
+        }
+    }
+
+    /** Add commit ID and its missing ancestors without recursing, so that
+     *  long histories do not overflow the stack, and return the position
+     *  of ID. */
+    private int addWithAncestors(String id) {
+        ArrayDeque<String> todo = new ArrayDeque<>();
+        todo.push(id);
+        while (!todo.isEmpty()) {
+            String curr = todo.peek();
+            if (_positions.containsKey(curr)) {
+                todo.pop();
+                continue;
+            }
+            Commit commit = _store.readCommit(curr);
+            List<String> missing = new ArrayList<>();
+            for (String parent : new String[] { commit.parent1(),
+                                                commit.parent2() }) {
+                if (!parent.equals("") && !_positions.containsKey(parent)) {
+                    missing.add(parent);
+                }
+            }
+            if (missing.isEmpty()) {
+                todo.pop();
+                add(curr, commit);
+            } else {
+                missing.forEach(todo::push);
+            }
+        }
+        return _positions.get(id);
+    }
+
+    /** Return the mapped graph file, mapping it again after appends. */
+    private MappedByteBuffer map() {
+        if (_map == null) {
+            try (FileChannel ch = FileChannel.open(_file.toPath())) {
+                _map = ch.map(FileChannel.MapMode.READ_ONLY, 0,
+                              HEADER + (long) _count * RECORD);
+            } catch (IOException excp) {
+                throw Utils.error("Cannot read %s.", _file.getName());
+            }
+        }
+        return _map;
+    }
+
+    /** The graph file. */
+    private final File _file;
+
+    /** The object store holding the commits. */
+    private final ObjectStore _store;
+
+    /** The mapped graph file, or null if it must be mapped again. */
+    private MappedByteBuffer _map;
+
+    /** Number of records in the graph. */
+    private int _count;
+
+    /** Position of each commit id, or null if the graph is not loaded. */
+    private HashMap<String, Integer> _positions;
+}
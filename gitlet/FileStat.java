@@ -0,0 +1,105 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** What the index remembers about a working file: its size, modification
+ *  time and inode number when it was last hashed, and the resulting blob
+ *  id.  If a file's current stat data equal the remembered data, its
+ *  content is assumed unchanged and it need not be hashed again.
+ *  @author Austin Nicola Ardisaputra
+ */
+class FileStat {
+
+    /** A record of a file of SIZE bytes, last modified MTIME nanoseconds
+     *  after the epoch, with inode number INODE and blob id ID. */
+    FileStat(long size, long mtime, long inode, String id) {
+        _size = size;
+        _mtime = mtime;
+        _inode = inode;
+        _id = id;
+    }
+
+    /** Return the current stat data of FILE, with no blob id, or null if
+     *  FILE cannot be examined.  Where the platform has no inode numbers,
+     *  the hash of its file key stands in. */
+    static FileStat of(File file) {
+        try {
+            if (UNIX) {
+                Map<String, Object> attrs = Files.readAttributes(
+                    file.toPath(), "unix:size,lastModifiedTime,ino");
+                return new FileStat((Long) attrs.get("size"),
+                    nanos((FileTime) attrs.get("lastModifiedTime")),
+                    (Long) attrs.get("ino"), null);
+            }
+            BasicFileAttributes attrs = Files.readAttributes(
+                file.toPath(), BasicFileAttributes.class);
+            Object key = attrs.fileKey();
+            return new FileStat(attrs.size(),
+                                nanos(attrs.lastModifiedTime()),
+                                key == null ? 0 : key.hashCode(), null);
+        } catch (IOException | UnsupportedOperationException excp) {
+            return null;
+        }
+    }
+
+    /** Return these stat data recorded with blob id ID. */
+    FileStat withId(String id) {
+        return new FileStat(_size, _mtime, _inode, id);
+    }
+
+    /** Return the blob id recorded for the file. */
+    String id() {
+        return _id;
+    }
+
+    /** Return the file's size in bytes. */
+    long size() {
+        return _size;
+    }
+
+    /** Return the file's modification time, in nanoseconds. */
+    long mtime() {
+        return _mtime;
+    }
+
+    /** Return the file's inode number. */
+    long inode() {
+        return _inode;
+    }
+
+    /** Return true iff OTHER has the same size, modification time and
+     *  inode as this, ignoring blob ids. */
+    boolean sameStat(FileStat other) {
+        return other != null && _size == other._size
+            && _mtime == other._mtime && _inode == other._inode;
+    }
+
+    /** Return TIME in nanoseconds since the epoch. */
+    static long nanos(FileTime time) {
+        return time.to(TimeUnit.NANOSECONDS);
+    }
+
+    /** True iff the file system supports the unix attribute view. */
+    private static final boolean UNIX =
+        FileSystems.getDefault().supportedFileAttributeViews()
+        .contains("unix");
+
+    /** Size in bytes. */
+    private final long _size;
+
+    /** Modification time in nanoseconds since the epoch. */
+    private final long _mtime;
+
+    /** Inode number. */
+    private final long _inode;
+
+    /** Blob id of the content. */
+    private final String _id;
+}
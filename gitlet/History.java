@@ -0,0 +1,343 @@
+package gitlet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/** A lazy walk over the history of a repository.  Commits are found
+ *  through the commit graph, one step ahead of the consumer, so that
+ *  stopping early costs nothing for the commits not reached.  When
+ *  commits themselves are wanted, the next PREFETCH batches of commits
+ *  of the walk are read ahead on the I/O executor while the consumer
+ *  works on the current one.
+ *
+ *  The walk follows one of several orders, starting from one or more
+ *  commits: FIRST_PARENT follows first parents only; TOPOLOGICAL visits
+ *  every ancestor, each after all its descendants, by decreasing
+ *  generation; DATE visits every ancestor newest first; and GRAPH, which
+ *  takes no starting commits, lists every commit in the repository in
+ *  commit graph order, parents first.
+ *  @author Austin Nicola Ardisaputra
+ */
+public class History implements Iterable<Commit> {
+
+    /** Order following first parents from the starting commit. */
+    public static final int FIRST_PARENT = 0;
+
+    /** Order visiting every ancestor after all its descendants. */
+    public static final int TOPOLOGICAL = 1;
+
+    /** Order visiting every ancestor by decreasing commit time. */
+    public static final int DATE = 2;
+
+    /** Order of the commit graph, covering every commit. */
+    public static final int GRAPH = 3;
+
+    /** Number of batches of commits read ahead of the consumer. */
+    static final int PREFETCH = IoExecutor.THREADS;
+
+    /** Largest number of commits read in one batch. */
+    static final int BATCH = 64;
+
+    /** The history of STORE in order ORDER from the commits at graph
+     *  positions STARTS. */
+    History(ObjectStore store, int order, int... starts) {
+        _store = store;
+        _graph = store.graph();
+        _order = order;
+        _starts = starts;
+    }
+
+    /** Return this history restricted to its first LIMIT commits made
+     *  from SINCE to UNTIL, in milliseconds since the epoch.  Commit
+     *  times decrease along FIRST_PARENT and DATE walks, which therefore
+     *  end at the first commit older than SINCE. */
+    public History select(long since, long until, int limit) {
+        History result = new History(_store, _order, _starts);
+        result._since = since;
+        result._until = until;
+        result._limit = limit;
+        return result;
+    }
+
+    /** Return the graph positions of the commits of this history, in
+     *  order, computed as they are asked for. */
+    PrimitiveIterator.OfInt positions() {
+        PrimitiveIterator.OfInt all;
+        switch (_order) {
+        case FIRST_PARENT:
+            all = new FirstParent();
+            break;
+        case GRAPH:
+            all = new Graph();
+            break;
+        default:
+            all = new ByPriority();
+            break;
+        }
+        if (_since == Long.MIN_VALUE && _until == Long.MAX_VALUE
+            && _limit == Integer.MAX_VALUE) {
+            return all;
+        }
+        return new Selected(all);
+    }
+
+    /** Return the commits of this history, in order, each read a little
+     *  before the consumer reaches it. */
+    @Override
+    public Iterator<Commit> iterator() {
+        return new Commits(positions());
+    }
+
+    /** Return the commits of this history as a lazy, ordered stream. */
+    public Stream<Commit> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+            iterator(), Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /** Positions following first parents from the first start. */
+    private class FirstParent implements PrimitiveIterator.OfInt {
+
+        @Override
+        public boolean hasNext() {
+            return _next != CommitGraph.NONE;
+        }
+
+        @Override
+        public int nextInt() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int result = _next;
+            _next = _graph.parent1(result);
+            return result;
+        }
+
+        /** The next position, or NONE. */
+        private int _next = _starts.length == 0 ? CommitGraph.NONE
+            : _starts[0];
+    }
+
+    /** Every position, in increasing order. */
+    private class Graph implements PrimitiveIterator.OfInt {
+
+        @Override
+        public boolean hasNext() {
+            return _next < _size;
+        }
+
+        @Override
+        public int nextInt() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return _next++;
+        }
+
+        /** The next position. */
+        private int _next;
+
+        /** Number of commits. */
+        private final int _size = _graph.size();
+    }
+
+    /** The ancestors of the starts, highest priority first, where
+     *  priority is generation for TOPOLOGICAL and commit time for DATE,
+     *  with ties going to the later position.  A parent always has a
+     *  lower generation than its children, so it is only reached once
+     *  they have all been visited. */
+    private class ByPriority implements PrimitiveIterator.OfInt {
+
+        /** A walk from the starts. */
+        ByPriority() {
+            for (int k : _starts) {
+                push(k);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !_queue.isEmpty();
+        }
+
+        @Override
+        public int nextInt() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int result = _queue.poll();
+            push(_graph.parent1(result));
+            push(_graph.parent2(result));
+            return result;
+        }
+
+        /** Queue position K unless it is NONE or already seen. */
+        private void push(int k) {
+            if (k != CommitGraph.NONE && !_seen.get(k)) {
+                _seen.set(k);
+                _queue.add(k);
+            }
+        }
+
+        /** Return the priority of the commit at position K. */
+        private long priority(int k) {
+            return _order == TOPOLOGICAL ? _graph.generation(k)
+                : _graph.time(k);
+        }
+
+        /** Positions reached but not yet visited. */
+        private final PriorityQueue<Integer> _queue =
+            new PriorityQueue<>((a, b) -> {
+                int c = Long.compare(priority(b), priority(a));
+                return c != 0 ? c : Integer.compare(b, a);
+            });
+
+        /** Positions ever queued. */
+        private final BitSet _seen = new BitSet();
+    }
+
+    /** The positions of a walk selected by select. */
+    private class Selected implements PrimitiveIterator.OfInt {
+
+        /** The positions delivered by ALL that were selected. */
+        Selected(PrimitiveIterator.OfInt all) {
+            _all = all;
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return _next != CommitGraph.NONE;
+        }
+
+        @Override
+        public int nextInt() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int result = _next;
+            advance();
+            return result;
+        }
+
+        /** Find the next selected position, or NONE. */
+        private void advance() {
+            _next = CommitGraph.NONE;
+            boolean byTime = _order == FIRST_PARENT || _order == DATE;
+            while (_taken < _limit && _all.hasNext()) {
+                int k = _all.nextInt();
+                long time = _graph.time(k);
+                if (time < _since && byTime) {
+                    return;
+                } else if (time >= _since && time <= _until) {
+                    _next = k;
+                    _taken += 1;
+                    return;
+                }
+            }
+        }
+
+        /** The whole walk. */
+        private final PrimitiveIterator.OfInt _all;
+
+        /** The next selected position, or NONE. */
+        private int _next;
+
+        /** Number of positions selected so far. */
+        private int _taken;
+    }
+
+    /** The commits at the positions delivered by a walk, read ahead in
+     *  batches.  The first batch holds one commit, so that it arrives
+     *  quickly, and each later one twice as many, up to BATCH. */
+    private class Commits implements Iterator<Commit> {
+
+        /** The commits at the positions delivered by POSITIONS. */
+        Commits(PrimitiveIterator.OfInt positions) {
+            _positions = positions;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (!_current.isEmpty()) {
+                return true;
+            }
+            fill();
+            return !_ahead.isEmpty();
+        }
+
+        @Override
+        public Commit next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (_current.isEmpty()) {
+                _current.addAll(IoExecutor.await(_ahead.poll()));
+                fill();
+            }
+            return _current.poll();
+        }
+
+        /** Start reading batches until PREFETCH are pending. */
+        private void fill() {
+            while (_ahead.size() < PREFETCH && _positions.hasNext()) {
+                List<String> ids = new ArrayList<>(_size);
+                while (ids.size() < _size && _positions.hasNext()) {
+                    ids.add(_graph.id(_positions.nextInt()));
+                }
+                _size = Math.min(2 * _size, BATCH);
+                _ahead.add(IoExecutor.submit(() -> {
+                    List<Commit> batch = new ArrayList<>(ids.size());
+                    for (String id : ids) {
+                        batch.add(_store.readCommit(id));
+                    }
+                    return batch;
+                }));
+            }
+        }
+
+        /** The walk. */
+        private final PrimitiveIterator.OfInt _positions;
+
+        /** Batches being read, in order. */
+        private final ArrayDeque<Future<List<Commit>>> _ahead =
+            new ArrayDeque<>();
+
+        /** The rest of the batch being consumed. */
+        private final ArrayDeque<Commit> _current = new ArrayDeque<>();
+
+        /** Number of commits in the next batch. */
+        private int _size = 1;
+    }
+
+    /** The object store holding the commits. */
+    private final ObjectStore _store;
+
+    /** The commit graph. */
+    private final CommitGraph _graph;
+
+    /** One of FIRST_PARENT, TOPOLOGICAL, DATE or GRAPH. */
+    private final int _order;
+
+    /** Graph positions of the starting commits. */
+    private final int[] _starts;
+
+    /** Earliest commit time selected. */
+    private long _since = Long.MIN_VALUE;
+
+    /** Latest commit time selected. */
+    private long _until = Long.MAX_VALUE;
+
+    /** Largest number of commits selected. */
+    private int _limit = Integer.MAX_VALUE;
+}
@@ -0,0 +1,212 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Supplier;
+
+/** A persistent index of object ids supporting prefix lookup.  The file
+ *  holds a header, a run of sorted 20-byte ids, and then a short unsorted
+ *  tail of ids appended since the run was last rewritten.  The sorted run
+ *  is memory-mapped and binary searched; the tail is kept in memory and
+ *  folded into the run once it grows past TAIL_LIMIT entries.
+ *  @author Austin Nicola Ardisaputra
+ */
+class IdIndex {
+
+    /** Magic number at the start of an index file. */
+    static final int MAGIC = 0x47494453;
+
+    /** Current format version. */
+    static final int VERSION = 1;
+
+    /** Number of unsorted ids allowed before the file is rewritten. */
+    static final int TAIL_LIMIT = 64;
+
+    /** Size of the header: magic, version and sorted count. */
+    private static final int HEADER = 12;
+
+    /** Length of a binary id. */
+    private static final int ID_BYTES = PackFile.ID_BYTES;
+
+    /** An index stored in FILE.  If FILE does not exist yet, it is built
+     *  from the ids delivered by INITIAL when first needed. */
+    IdIndex(File file, Supplier<Collection<String>> initial) {
+        _file = file;
+        _initial = initial;
+    }
+
+    /** Record that ID exists. */
+    void add(String id) {
+        load();
+        if (contains(id)) {
+            return;
+        }
+        try (RandomAccessFile out = new RandomAccessFile(_file, "rw")) {
+            out.seek(out.length());
+            out.write(Utils.hexToBytes(id));
+        } catch (IOException excp) {
+            throw Utils.error("Cannot update %s.", _file.getName());
+        }
+        _tail.add(id);
+        if (_tail.size() > TAIL_LIMIT) {
+            ArrayList<String> all = new ArrayList<>(_tail);
+            for (int k = 0; k < _count; k += 1) {
+                all.add(id(k));
+            }
+            rewrite(all);
+        }
+    }
+
+    /** Return true iff ID is in the index. */
+    boolean contains(String id) {
+        load();
+        byte[] key = Utils.hexToBytes(id);
+        int k = lowerBound(key, key.length);
+        return (k < _count && compareId(k, key, key.length) == 0)
+            || _tail.contains(id);
+    }
+
+    /** Return up to LIMIT ids that start with the hex digits PREFIX, in
+     *  increasing order. */
+    List<String> findPrefix(String prefix, int limit) {
+        load();
+        List<String> result = new ArrayList<>();
+        byte[] key = Utils.hexToBytes(prefix.length() % 2 == 0
+                                      ? prefix : prefix + "0");
+        for (int k = lowerBound(key, key.length);
+             k < _count && result.size() < limit; k += 1) {
+            String id = id(k);
+            if (!id.startsWith(prefix)) {
+                break;
+            }
+            result.add(id);
+        }
+        for (String id : _tail) {
+            if (id.startsWith(prefix)) {
+                result.add(id);
+            }
+        }
+        result.sort(null);
+        return result.size() > limit ? result.subList(0, limit) : result;
+    }
+
+    /** Read the index file, building it first if it does not exist. */
+    private void load() {
+        if (_ids != null) {
+            return;
+        }
+        if (!_file.exists()) {
+            rewrite(new ArrayList<>(_initial.get()));
+            return;
+        }
+        try (FileChannel ch = FileChannel.open(_file.toPath())) {
+            ByteBuffer head = ByteBuffer.allocate(HEADER);
+            ch.read(head, 0);
+            if (head.getInt(0) != MAGIC || head.getInt(4) != VERSION) {
+                throw Utils.error("Bad object id index.");
+            }
+            _count = head.getInt(8);
+            long sortedEnd = HEADER + (long) _count * ID_BYTES;
+            _ids = ch.map(FileChannel.MapMode.READ_ONLY, 0, sortedEnd);
+            _tail = new ArrayList<>();
+            ByteBuffer tail = ByteBuffer.allocate(
+                (int) (ch.size() - sortedEnd) / ID_BYTES * ID_BYTES);
+            ch.read(tail, sortedEnd);
+            byte[] id = new byte[ID_BYTES];
+            tail.flip();
+            while (tail.remaining() >= ID_BYTES) {
+                tail.get(id);
+                _tail.add(Utils.bytesToHex(id));
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read %s.", _file.getName());
+        }
+    }
+
+    /** Replace the index file with the sorted, duplicate-free IDS. */
+    private void rewrite(List<String> ids) {
+        String[] sorted = ids.stream().distinct().sorted()
+            .toArray(String[]::new);
+        File tmp = new File(_file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(Files.newOutputStream(
+                     tmp.toPath())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sorted.length);
+            for (String id : sorted) {
+                out.write(Utils.hexToBytes(id));
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write %s.", _file.getName());
+        }
+        try {
+            Files.move(tmp.toPath(), _file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write %s.", _file.getName());
+        }
+        _ids = null;
+        load();
+    }
+
+    /** Return the position of the first sorted id whose first LEN bytes
+     *  are not less than KEY. */
+    private int lowerBound(byte[] key, int len) {
+        int lo = 0, hi = _count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareId(mid, key, len) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Compare the first LEN bytes of sorted id K with KEY. */
+    private int compareId(int k, byte[] key, int len) {
+        int base = HEADER + k * ID_BYTES;
+        for (int i = 0; i < len; i += 1) {
+            int c = Integer.compare(_ids.get(base + i) & 0xff, key[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** Return sorted id K in hex. */
+    private String id(int k) {
+        byte[] id = new byte[ID_BYTES];
+        _ids.get(HEADER + k * ID_BYTES, id);
+        return Utils.bytesToHex(id);
+    }
+
+    /** The index file. */
+    private final File _file;
+
+    /** Source of ids for a new index. */
+    private final Supplier<Collection<String>> _initial;
+
+    /** The mapped header and sorted run, or null if not loaded. */
+    private MappedByteBuffer _ids;
+
+    /** Number of ids in the sorted run. */
+    private int _count;
+
+    /** Ids appended after the sorted run. */
+    private List<String> _tail;
+}
@@ -0,0 +1,123 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/** The executor shared by all file operations that fan out over many
+ *  files: hashing working files, storing blobs, writing checked-out
+ *  files and reading commits ahead of a walk over history.  Where the
+ *  JVM has virtual threads, each worker runs on one; otherwise a pool of
+ *  daemon platform threads is used.  In either case map has at most
+ *  THREADS items in progress at once, as set by the system property
+ *  gitlet.io.threads.  Results are always returned in the order of the
+ *  items, so output does not depend on scheduling.
+ *  @author Austin Nicola Ardisaputra
+ */
+class IoExecutor {
+
+    /** Maximum number of items processed at once. */
+    static final int THREADS =
+        Math.max(1, Integer.getInteger("gitlet.io.threads",
+            4 * Runtime.getRuntime().availableProcessors()));
+
+    /** Return the results of applying FN to each of ITEMS, in the order
+     *  of ITEMS.  Up to THREADS items are processed concurrently, so FN
+     *  must not modify shared state.  If FN throws for some items, the
+     *  exception for the first such item is rethrown after all items are
+     *  done. */
+    static <T, R> List<R> map(List<T> items, Function<T, R> fn) {
+        int workers = Math.min(THREADS, items.size());
+        if (workers <= 1) {
+            List<R> result = new ArrayList<>(items.size());
+            for (T item : items) {
+                result.add(fn.apply(item));
+            }
+            return result;
+        }
+        Object[] results = new Object[items.size()];
+        RuntimeException[] errors = new RuntimeException[items.size()];
+        AtomicInteger next = new AtomicInteger();
+        Runnable worker = () -> {
+            for (int k = next.getAndIncrement(); k < results.length;
+                 k = next.getAndIncrement()) {
+                try {
+                    results[k] = fn.apply(items.get(k));
+                } catch (RuntimeException excp) {
+                    errors[k] = excp;
+                }
+            }
+        };
+        List<Future<?>> running = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i += 1) {
+            running.add(executor().submit(worker));
+        }
+        for (Future<?> task : running) {
+            try {
+                task.get();
+            } catch (InterruptedException | ExecutionException excp) {
+                throw Utils.error("I/O interrupted: %s", excp.getMessage());
+            }
+        }
+        for (RuntimeException excp : errors) {
+            if (excp != null) {
+                throw excp;
+            }
+        }
+        List<R> result = new ArrayList<>(results.length);
+        for (Object obj : results) {
+            @SuppressWarnings("unchecked")
+            R r = (R) obj;
+            result.add(r);
+        }
+        return result;
+    }
+
+    /** Start TASK on the shared executor, returning its future result,
+     *  to be collected with await. */
+    static <R> Future<R> submit(Callable<R> task) {
+        return executor().submit(task);
+    }
+
+    /** Return the result of the task submitted as RESULT, waiting for it
+     *  if need be, and rethrowing any RuntimeException it threw. */
+    static <R> R await(Future<R> result) {
+        try {
+            return result.get();
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw Utils.error("I/O failed: %s", excp.getMessage());
+        } catch (InterruptedException excp) {
+            throw Utils.error("I/O interrupted: %s", excp.getMessage());
+        }
+    }
+
+    /** Return the shared executor, creating it on first use. */
+    private static synchronized ExecutorService executor() {
+        if (_executor == null) {
+            try {
+                _executor = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+            } catch (ReflectiveOperationException excp) {
+                _executor = Executors.newFixedThreadPool(THREADS, task -> {
+                    Thread thread = new Thread(task, "gitlet-io");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+        }
+        return _executor;
+    }
+
+    /** The shared executor, or null if not yet created. */
+    private static ExecutorService _executor;
+}
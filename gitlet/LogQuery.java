@@ -0,0 +1,180 @@
+package gitlet;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** The options of log and global-log choosing which commits are listed:
+ *  --since=DATE and --until=DATE, keeping only commits made no earlier or
+ *  no later than DATE, and -n N, keeping only the first N of those.  The
+ *  options --first-parent (log only), --topo-order and --date-order pick
+ *  the order of the walk, as described by History.  A DATE is a date
+ *  (2024-05-01), a date and time (2024-05-01 13:30 or 2024-05-01T13:30:15)
+ *  in the local time zone, @ followed by seconds since the epoch, or an
+ *  age such as "3 hours ago" or "2.days.ago".
+ *  @author Austin Nicola Ardisaputra
+ */
+class LogQuery {
+
+    /** Order meaning the command's usual order. */
+    static final int DEFAULT_ORDER = -1;
+
+    /** A query listing every commit in the usual order. */
+    LogQuery() {
+        this(Long.MIN_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE,
+             DEFAULT_ORDER);
+    }
+
+    /** A query listing up to LIMIT commits made from SINCE to UNTIL
+     *  inclusive, in milliseconds since the epoch, in ORDER, one of the
+     *  orders of History or DEFAULT_ORDER. */
+    LogQuery(long since, long until, int limit, int order) {
+        _since = since;
+        _until = until;
+        _limit = limit;
+        _order = order;
+    }
+
+    /** Return the query given by the options ARGS[START..], relative to
+     *  the current time, for global-log if GLOBAL and otherwise for log.
+     *  Throws a GitletException if they are not valid options. */
+    static LogQuery parse(String[] args, int start, boolean global) {
+        long since = Long.MIN_VALUE, until = Long.MAX_VALUE;
+        int limit = Integer.MAX_VALUE, order = DEFAULT_ORDER;
+        long now = System.currentTimeMillis();
+        for (int i = start; i < args.length; i += 1) {
+            String arg = args[i];
+            if (arg.equals("--first-parent") && !global) {
+                order = History.FIRST_PARENT;
+                continue;
+            } else if (arg.equals("--topo-order")) {
+                order = History.TOPOLOGICAL;
+                continue;
+            } else if (arg.equals("--date-order")) {
+                order = History.DATE;
+                continue;
+            }
+            String value;
+            int eq = arg.indexOf('=');
+            String name = eq < 0 ? arg : arg.substring(0, eq);
+            if (!name.equals("--since") && !name.equals("--until")
+                && !name.equals("-n")) {
+                throw new GitletException("Incorrect operands.");
+            }
+            if (eq >= 0) {
+                value = arg.substring(eq + 1);
+            } else if (i + 1 < args.length) {
+                i += 1;
+                value = args[i];
+            } else {
+                throw new GitletException("Incorrect operands.");
+            }
+            if (name.equals("-n")) {
+                try {
+                    limit = Integer.parseInt(value);
+                } catch (NumberFormatException excp) {
+                    limit = -1;
+                }
+                if (limit < 0) {
+                    throw new GitletException("Incorrect operands.");
+                }
+            } else if (name.equals("--since")) {
+                since = time(value, now);
+            } else {
+                until = time(value, now);
+            }
+        }
+        return new LogQuery(since, until, limit, order);
+    }
+
+    /** Return the time in milliseconds since the epoch denoted by DATE
+     *  when the current time is NOW.  Throws a GitletException if DATE
+     *  is not a valid date. */
+    static long time(String date, long now) {
+        date = date.trim();
+        Matcher ago = AGO.matcher(date);
+        try {
+            if (ago.matches()) {
+                return now - Long.parseLong(ago.group(1))
+                    * unit(ago.group(2));
+            } else if (date.startsWith("@")) {
+                return TimeUnit.SECONDS.toMillis(
+                    Long.parseLong(date.substring(1)));
+            } else if (date.length() == "yyyy-mm-dd".length()) {
+                return LocalDate.parse(date).atStartOfDay(ZONE)
+                    .toInstant().toEpochMilli();
+            } else {
+                return LocalDateTime.parse(date.replace(' ', 'T'))
+                    .atZone(ZONE).toInstant().toEpochMilli();
+            }
+        } catch (NumberFormatException | DateTimeParseException excp) {
+            throw new GitletException("Invalid date.");
+        }
+    }
+
+    /** Return the length in milliseconds of the time unit NAME. */
+    private static long unit(String name) {
+        switch (name) {
+        case "second":
+            return TimeUnit.SECONDS.toMillis(1);
+        case "minute":
+            return TimeUnit.MINUTES.toMillis(1);
+        case "hour":
+            return TimeUnit.HOURS.toMillis(1);
+        case "day":
+            return TimeUnit.DAYS.toMillis(1);
+        default:
+            return TimeUnit.DAYS.toMillis(7);
+        }
+    }
+
+    /** Return true iff this query lists every commit in the usual
+     *  order. */
+    boolean all() {
+        return _since == Long.MIN_VALUE && _until == Long.MAX_VALUE
+            && _limit == Integer.MAX_VALUE && _order == DEFAULT_ORDER;
+    }
+
+    /** Return the order asked for, or DEFAULT_ORDER. */
+    int order() {
+        return _order;
+    }
+
+    /** Return the earliest commit time listed, in milliseconds. */
+    long since() {
+        return _since;
+    }
+
+    /** Return the latest commit time listed, in milliseconds. */
+    long until() {
+        return _until;
+    }
+
+    /** Return the largest number of commits listed. */
+    int limit() {
+        return _limit;
+    }
+
+    /** An age: a count, a unit and "ago", separated by spaces or dots. */
+    private static final Pattern AGO = Pattern.compile(
+        "(\\d+)[ .](second|minute|hour|day|week)s?[ .]ago");
+
+    /** Time zone of dates without one. */
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    /** Earliest commit time listed. */
+    private final long _since;
+
+    /** Latest commit time listed. */
+    private final long _until;
+
+    /** Largest number of commits listed. */
+    private final int _limit;
+
+    /** Order of the walk. */
+    private final int _order;
+}
@@ -1,7 +1,14 @@
 package gitlet;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /** Driver class for Gitlet, the tiny stupid version-control system.
  *  @author Austin Nicola Ardisaputra
@@ -9,66 +16,198 @@ import java.util.ArrayList;
 public class Main {
 
     /** Usage: java gitlet.Main ARGS, where ARGS contains
-     *  <COMMAND> <OPERAND> .... */
+     *  <COMMAND> <OPERAND> ....  If a server is running for the repository
+     *  in the current directory, the command is run by it instead. */
     public static void main(String... args) {
         if (args.length == 0) {
             System.out.println("Please enter a command.");
             System.exit(0);
         }
+        File mainDir = new File("./.gitlet");
+        if (!args[0].equals("monitor") && !args[0].equals("batch")
+            && Server.forward(mainDir, args) != null) {
+            return;
+        }
+        if (args[0].equals("serve")) {
+            serve(mainDir, args);
+            return;
+        }
+        long start = System.nanoTime();
         Repo repo = new Repo();
+        if (Boolean.getBoolean("gitlet.stats")) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                System.err.printf("%s: %.1f ms in the command; read %s%n",
+                                  args[0], (System.nanoTime() - start) / 1e6,
+                                  repo.loaded());
+                System.err.println(repo.cache());
+            }));
+        }
+        if (args[0].equals("batch")) {
+            batch(repo, args);
+        } else {
+            run(repo, args);
+        }
+    }
+
+    /** Run the commands in the file named by the batch command ARGS, or
+     *  on the standard input if it names none or "-", on REPO.  Each line
+     *  holds one command, with its operands separated by blanks and
+     *  quoted as in the shell if they contain any; blank lines and lines
+     *  starting with '#' are skipped.  Writes of the index and refs are
+     *  put off until the line "checkpoint" or the end.  After each
+     *  command, a line "# exit N" gives its status. */
+    private static void batch(Repo repo, String... args) {
+        if (args.length > 2) {
+            System.out.println("Incorrect operands.");
+            return;
+        }
+        boolean stdin = args.length == 1 || args[1].equals("-");
+        try (BufferedReader in = new BufferedReader(stdin
+                 ? new InputStreamReader(System.in, StandardCharsets.UTF_8)
+                 : Files.newBufferedReader(Paths.get(args[1])))) {
+            repo.defer(true);
+            for (String line = in.readLine(); line != null;
+                 line = in.readLine()) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                int status;
+                if (line.equals("checkpoint")) {
+                    repo.checkpoint();
+                    status = 0;
+                } else {
+                    try {
+                        status = run(repo, words(line));
+                    } catch (RuntimeException excp) {
+                        System.out.println(excp);
+                        status = 1;
+                    }
+                }
+                System.out.println("# exit " + status);
+            }
+        } catch (IOException excp) {
+            System.out.println("Cannot read " + args[1] + ".");
+        } finally {
+            repo.defer(false);
+        }
+    }
+
+    /** Return the blank-separated words of LINE.  Within single quotes
+     *  all characters stand for themselves; within double quotes and
+     *  outside quotes, a backslash quotes the next character. */
+    static String[] words(String line) {
+        ArrayList<String> result = new ArrayList<>();
+        StringBuilder word = null;
+        char quote = 0;
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if (quote == 0 && Character.isWhitespace(c)) {
+                if (word != null) {
+                    result.add(word.toString());
+                    word = null;
+                }
+                continue;
+            }
+            if (word == null) {
+                word = new StringBuilder();
+            }
+            if (c == quote) {
+                quote = 0;
+            } else if (quote == 0 && (c == '\'' || c == '"')) {
+                quote = c;
+            } else if (c == '\\' && quote != '\'' && i + 1 < line.length()) {
+                i += 1;
+                word.append(line.charAt(i));
+            } else {
+                word.append(c);
+            }
+        }
+        if (word != null) {
+            result.add(word.toString());
+        }
+        return result.toArray(new String[0]);
+    }
+
+    /** Run the server for the repository whose gitlet directory is
+     *  MAINDIR, as asked by the serve command ARGS, which found no server
+     *  already running. */
+    private static void serve(File mainDir, String... args) {
+        if (!mainDir.exists()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+        } else if (args.length == 2 && args[1].equals("stop")) {
+            System.out.println("No server is running.");
+        } else if (args.length != 1) {
+            System.out.println("Incorrect operands.");
+        } else {
+            try {
+                new Server(mainDir).run();
+            } catch (GitletException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
+    /** Run the command ARGS on REPO, printing its output.  Returns 0 if
+     *  it succeeded, and 1 if it reported an error. */
+    public static int run(Repo repo, String... args) {
         if (args[0].equals("init")) {
             if (args.length > 1) {
                 System.out.println("Incorrect operands.");
+                return 1;
             }
             try {
                 repo.init();
             } catch (GitletException e) {
                 System.out.println(e.getMessage());
-                System.exit(0);
+                return 1;
             }
-            return;
+            return 0;
         }
         File mainDir = new File("./.gitlet");
         if (!mainDir.exists()) {
             System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
-            return;
+            return 1;
         }
         if (args[0].equals("log")) {
-            if (args.length > 1) {
-                System.out.println("Incorrect operands.");
+            try {
+                repo.log(LogQuery.parse(args, 1, false));
+            } catch (GitletException e) {
+                System.out.println(e.getMessage());
+                return 1;
             }
-            repo.log();
-            return;
+            return 0;
         }
         if (args[0].equals("add")) {
-            if (args.length != 2) {
+            if (args.length < 2) {
                 System.out.println("Incorrect operands.");
+                return 1;
             }
             try {
-                repo.add(args[1]);
+                repo.add(Arrays.asList(args).subList(1, args.length));
             } catch (GitletException e) {
                 System.out.println(e.getMessage());
-                System.exit(0);
+                return 1;
             }
-            return;
+            return 0;
         }
         if (args[0].equals("commit")) {
             if (args.length != 2) {
                 System.out.println("Incorrect operands.");
+                return 1;
             }
             try {
                 repo.commit(args[1], "");
             } catch (GitletException e) {
                 System.out.println(e.getMessage());
-                System.exit(0);
+                return 1;
             }
-            return;
+            return 0;
         }
-        main2(repo, args);
+        return main2(repo, args);
     }
 
-    public static void main2(Repo repo, String... args) {
+    public static int main2(Repo repo, String... args) {
         if (args[0].equals("checkout")) {
             try {
                 if (args.length == 1) {
@@ -83,138 +222,192 @@ public class Main {
                     repo.checkout(args[1], args[3]);
                 } else {
                     System.out.println("Incorrect operands.");
-                    System.exit(0);
+                    return 1;
                 }
             } catch (GitletException e) {
                 System.out.println(e.getMessage());
-                System.exit(0);
+                return 1;
             }
-            return;
+            return 0;
         }
 
         if (args[0].equals("rm")) {
             if (args.length != 2) {
                 System.out.println("Incorrect operands.");
+                return 1;
             }
-            repo.rm(args[1]);
-            return;
+            try {
+                repo.rm(args[1]);
+            } catch (GitletException e) {
+                System.out.println(e.getMessage());
+                return 1;
+            }
+            return 0;
         }
         if (args[0].equals("branch")) {
             if (args.length != 2) {
                 System.out.println("Incorrect operands.");
+                return 1;
             }
             try {
                 repo.branch(args[1]);
             } catch (GitletException e) {
                 System.out.println(e.getMessage());
-                System.exit(0);
+                return 1;
             }
-            return;
+            return 0;
         }
-        main3(repo, args);
+        return main3(repo, args);
     }
 
-    public static void main3(Repo repo, String... args) {
+    public static int main3(Repo repo, String... args) {
         if (args[0].equals("rm-branch")) {
             if (args.length != 2) {
                 System.out.println("Incorrect operands.");
+                return 1;
             }
             try {
                 repo.rmBranch(args[1]);
             } catch (GitletException e) {
                 System.out.println(e.getMessage());
-                System.exit(0);
+                return 1;
             }
-            return;
+            return 0;
         }
         if (args[0].equals("global-log")) {
-            if (args.length != 1) {
-                System.out.println("Incorrect operands.");
+            try {
+                repo.gLog(LogQuery.parse(args, 1, true));
+            } catch (GitletException e) {
+                System.out.println(e.getMessage());
+                return 1;
             }
-            repo.gLog();
-            return;
+            return 0;
         }
         if (args[0].equals("find")) {
-            if (args.length != 2) {
+            int kind = MessageIndex.EXACT;
+            if (args.length == 3 && args[1].equals("--substring")) {
+                kind = MessageIndex.SUBSTRING;
+            } else if (args.length == 3 && args[1].equals("--regex")) {
+                kind = MessageIndex.REGEX;
+            } else if (args.length != 2) {
                 System.out.println("Incorrect operands.");
+                return 1;
             }
             ArrayList<String> toPrint = null;
             try {
-                toPrint = repo.find(args[1]);
+                toPrint = repo.find(args[kind == MessageIndex.EXACT ? 1 : 2],
+                                    kind);
             } catch (GitletException e) {
                 System.out.println(e.getMessage());
-                System.exit(0);
+                return 1;
             }
             for (String line : toPrint) {
                 System.out.println(line);
             }
-            return;
+            return 0;
         }
         if (args[0].equals("reset")) {
             if (args.length != 2) {
                 System.out.println("Incorrect operands.");
+                return 1;
             }
             try {
                 repo.reset(args[1]);
             } catch (GitletException e) {
                 System.out.println(e.getMessage());
-                System.exit(0);
+                return 1;
             }
-            return;
+            return 0;
         }
-        main4(repo, args);
+        return main4(repo, args);
     }
 
-    public static void main4(Repo repo, String... args) {
+    public static int main4(Repo repo, String... args) {
         if (args[0].equals("status")) {
             if (args.length != 1) {
                 System.out.println("Incorrect operands.");
+                return 1;
             }
             repo.status();
-            return;
+            return 0;
         }
         if (args[0].equals("merge")) {
             if (args.length != 2) {
                 System.out.println("Incorrect operands.");
+                return 1;
             }
             try {
                 repo.merge(args[1]);
             } catch (GitletException e) {
                 System.out.println(e.getMessage());
-                System.exit(0);
+                return 1;
             }
-            return;
+            return 0;
         }
-        mainEC(repo, args);
+        return mainEC(repo, args);
 
     }
 
-    public static void mainEC(Repo repo, String... args) {
+    public static int mainEC(Repo repo, String... args) {
         if (args[0].equals("add-remote")) {
             if (args.length != 3) {
                 System.out.println("Incorrect operands.");
+                return 1;
             }
             try {
                 repo.addRemote(args[1], args[2]);
             } catch (GitletException e) {
                 System.out.println(e.getMessage());
-                System.exit(0);
+                return 1;
             }
-            return;
+            return 0;
         }
         if (args[0].equals("rm-remote")) {
             if (args.length != 2) {
                 System.out.println("Incorrect operands.");
+                return 1;
             }
             try {
                 repo.rmRemote(args[1]);
             } catch (GitletException e) {
                 System.out.println(e.getMessage());
-                System.exit(0);
+                return 1;
             }
-            return;
+            return 0;
+        }
+        return main5(repo, args);
+    }
+
+    public static int main5(Repo repo, String... args) {
+        if (args[0].equals("repack")) {
+            if (args.length != 1) {
+                System.out.println("Incorrect operands.");
+                return 1;
+            }
+            try {
+                repo.repack();
+            } catch (GitletException e) {
+                System.out.println(e.getMessage());
+                return 1;
+            }
+            return 0;
+        }
+        if (args[0].equals("monitor")) {
+            if (args.length > 2
+                || args.length == 2 && !args[1].equals("stop")) {
+                System.out.println("Incorrect operands.");
+                return 1;
+            }
+            try {
+                repo.monitor(args.length == 2);
+            } catch (GitletException e) {
+                System.out.println(e.getMessage());
+                return 1;
+            }
+            return 0;
         }
 
         System.out.println("No command with that name exists.");
+        return 1;
     }
 }
@@ -0,0 +1,66 @@
+package gitlet;
+
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+/** Merge-base search over a commit graph.  Commits reachable from each of
+ *  the two tips are painted with that tip's flag, visiting commits in
+ *  order of decreasing generation number.  Since every commit has a
+ *  larger generation than its parents, all descendants of a commit are
+ *  visited before it, so the first commit seen carrying both flags is a
+ *  common ancestor that no other common ancestor descends from, and the
+ *  search can stop there.  Following both parents of every commit makes
+ *  this correct for criss-cross merges, where there is more than one such
+ *  ancestor; ties go to the newer commit.
+ *  @author Austin Nicola Ardisaputra
+ */
+class MergeBase {
+
+    /** Flag for commits reachable from the first tip. */
+    private static final int FROM_A = 1;
+
+    /** Flag for commits reachable from the second tip. */
+    private static final int FROM_B = 2;
+
+    /** Return the position in GRAPH of the best common ancestor of the
+     *  commits at positions A and B, or CommitGraph.NONE if they have
+     *  none. */
+    static int find(CommitGraph graph, int a, int b) {
+        if (a == b) {
+            return a;
+        }
+        HashMap<Integer, Integer> flags = new HashMap<>();
+        PriorityQueue<Integer> queue = new PriorityQueue<>((x, y) -> {
+            int c = Integer.compare(graph.generation(y), graph.generation(x));
+            if (c == 0) {
+                c = Long.compare(graph.time(y), graph.time(x));
+            }
+            return c != 0 ? c : Integer.compare(y, x);
+        });
+        flags.put(a, FROM_A);
+        flags.put(b, FROM_B);
+        queue.add(a);
+        queue.add(b);
+        while (!queue.isEmpty()) {
+            int curr = queue.poll();
+            int paint = flags.get(curr);
+            if (paint == (FROM_A | FROM_B)) {
+                return curr;
+            }
+            for (int parent : new int[] { graph.parent1(curr),
+                                          graph.parent2(curr) }) {
+                if (parent == CommitGraph.NONE) {
+                    continue;
+                }
+                Integer old = flags.get(parent);
+                if (old == null) {
+                    flags.put(parent, paint);
+                    queue.add(parent);
+                } else if ((old | paint) != old) {
+                    flags.put(parent, old | paint);
+                }
+            }
+        }
+        return CommitGraph.NONE;
+    }
+}
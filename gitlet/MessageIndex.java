@@ -0,0 +1,313 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/** The message of every commit, by position in the commit graph, so that
+ *  find and global-log need not read any commit objects.  The file holds
+ *  a header giving the number of records and where they end, and then
+ *  one record per commit, in graph order: its 20-byte id and its message.
+ *  Each new commit's record is appended and the header then updated, so
+ *  a record cut short by a crash is never counted.
+ *
+ *  When loaded, the messages are indexed in memory whole and, once a
+ *  substring query needs it, by term, a term being a maximal run of
+ *  letters and digits, in lower case.  If the file is missing, damaged,
+ *  or lags behind the graph, the missing records are rebuilt from the
+ *  commit objects.
+ *  @author Austin Nicola Ardisaputra
+ */
+class MessageIndex {
+
+    /** Magic number at the start of a message index file. */
+    static final int MAGIC = 0x474d5347;
+
+    /** Current format version. */
+    static final int VERSION = 1;
+
+    /** Query kind matching messages equal to the query. */
+    static final int EXACT = 0;
+
+    /** Query kind matching messages containing the query. */
+    static final int SUBSTRING = 1;
+
+    /** Query kind matching messages in which the query, a regular
+     *  expression, finds a match. */
+    static final int REGEX = 2;
+
+    /** Size of the header: magic, version, record count and end. */
+    private static final int HEADER = 20;
+
+    /** Separators between terms. */
+    private static final Pattern NON_TERM = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    /** An index stored in FILE for the commits of GRAPH, which are read
+     *  from STORE when records are missing. */
+    MessageIndex(File file, CommitGraph graph, ObjectStore store) {
+        _file = file;
+        _graph = graph;
+        _store = store;
+    }
+
+    /** Record that COMMIT, whose message is MSG and whose id is ID, was
+     *  added to the graph at position K.  If the file does not end just
+     *  before K, the record is left for load to rebuild. */
+    void add(int k, String id, String msg) {
+        if (_byPosition != null) {
+            if (k != _byPosition.size()) {
+                _byPosition = null;
+                return;
+            }
+            index(msg);
+        }
+        try (RandomAccessFile out = new RandomAccessFile(_file, "rw")) {
+            if (out.length() < HEADER || out.readInt() != MAGIC
+                || out.readInt() != VERSION || out.readInt() != k) {
+                return;
+            }
+            long end = out.readLong();
+            byte[] rec = new Codec.Writer().id(id).string(msg).toByteArray();
+            out.seek(end);
+            out.write(rec);
+            writeHeader(out, k + 1, end + rec.length);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot update %s.", _file.getName());
+        }
+    }
+
+    /** Return the message of the commit at position K of the graph. */
+    String message(int k) {
+        load();
+        return _distinct.get(_byPosition.get(k));
+    }
+
+    /** Return the graph positions, in increasing order, of the commits
+     *  whose messages match QUERY as a query of kind KIND: EXACT,
+     *  SUBSTRING or REGEX.  Throws a GitletException if a REGEX query is
+     *  not a valid pattern. */
+    List<Integer> find(String query, int kind) {
+        load();
+        List<Integer> result = new ArrayList<>();
+        if (kind == EXACT) {
+            Integer n = _numbers.get(query);
+            if (n != null) {
+                result.addAll(_commits.get(n));
+            }
+            return result;
+        }
+        Matcher matcher = null;
+        if (kind == REGEX) {
+            try {
+                matcher = Pattern.compile(query).matcher("");
+            } catch (PatternSyntaxException excp) {
+                throw new GitletException("Invalid pattern.");
+            }
+        }
+        for (int n : candidates(query, kind)) {
+            String msg = _distinct.get(n);
+            if (matcher != null ? matcher.reset(msg).find()
+                : msg.contains(query)) {
+                result.addAll(_commits.get(n));
+            }
+        }
+        result.sort(null);
+        return result;
+    }
+
+    /** Return the numbers of the distinct messages that might match QUERY
+     *  as a query of kind KIND.  A message containing a SUBSTRING query
+     *  must have as whole terms all the terms that lie strictly inside
+     *  the query, so only messages found under each of those are tried. */
+    private List<Integer> candidates(String query, int kind) {
+        List<Integer> result = null;
+        if (kind == SUBSTRING) {
+            indexTerms();
+            String[] words = NON_TERM.split(query, -1);
+            for (int i = 1; i < words.length - 1; i += 1) {
+                List<Integer> postings =
+                    _terms.getOrDefault(words[i].toLowerCase(), List.of());
+                result = result == null ? postings
+                    : intersect(result, postings);
+            }
+        }
+        if (result == null) {
+            result = new ArrayList<>(_distinct.size());
+            for (int n = 0; n < _distinct.size(); n += 1) {
+                result.add(n);
+            }
+        }
+        return result;
+    }
+
+    /** Return the numbers in both of the increasing lists A and B. */
+    private static List<Integer> intersect(List<Integer> a, List<Integer> b) {
+        List<Integer> result = new ArrayList<>();
+        for (int i = 0, j = 0; i < a.size() && j < b.size();) {
+            int c = Integer.compare(a.get(i), b.get(j));
+            if (c == 0) {
+                result.add(a.get(i));
+            }
+            i += c <= 0 ? 1 : 0;
+            j += c >= 0 ? 1 : 0;
+        }
+        return result;
+    }
+
+    /** Add MSG, the message of the next commit in the graph, to the
+     *  in-memory indexes. */
+    private void index(String msg) {
+        Integer known = _numbers.get(msg);
+        int n = known != null ? known : _distinct.size();
+        if (known == null) {
+            _distinct.add(msg);
+            _numbers.put(msg, n);
+            _commits.add(new ArrayList<>(1));
+            if (_terms != null) {
+                indexTerms(n);
+            }
+        }
+        _commits.get(n).add(_byPosition.size());
+        _byPosition.add(n);
+    }
+
+    /** Index the terms of all distinct messages, if not yet done. */
+    private void indexTerms() {
+        if (_terms == null) {
+            _terms = new HashMap<>();
+            for (int n = 0; n < _distinct.size(); n += 1) {
+                indexTerms(n);
+            }
+        }
+    }
+
+    /** Add the terms of distinct message N, numbered after all those
+     *  indexed so far, to the term index. */
+    private void indexTerms(int n) {
+        for (String term : NON_TERM.split(_distinct.get(n).toLowerCase())) {
+            if (!term.isEmpty()) {
+                List<Integer> postings =
+                    _terms.computeIfAbsent(term, t -> new ArrayList<>());
+                if (postings.isEmpty()
+                    || postings.get(postings.size() - 1) != n) {
+                    postings.add(n);
+                }
+            }
+        }
+    }
+
+    /** Read the index, first bringing the file up to date with the graph
+     *  if it is missing, damaged, or behind. */
+    private void load() {
+        if (_byPosition != null) {
+            return;
+        }
+        _byPosition = new ArrayList<>();
+        _distinct = new ArrayList<>();
+        _numbers = new HashMap<>();
+        _commits = new ArrayList<>();
+        _terms = null;
+        int size = _graph.size();
+        long end = HEADER;
+        boolean current = false;
+        if (_file.isFile()) {
+            byte[] data = Utils.readContents(_file);
+            Codec.Reader in = new Codec.Reader(data, 0);
+            if (data.length >= HEADER && in.int32() == MAGIC
+                && in.int32() == VERSION) {
+                int count = in.int32();
+                long written = in.int64();
+                current = count <= size && written <= data.length;
+                count = Math.min(count, size);
+                written = Math.min(written, data.length);
+                in = new Codec.Reader(data, HEADER);
+                try {
+                    for (int k = 0; k < count
+                             && in.position() < written; k += 1) {
+                        String id = in.id();
+                        String msg = in.string();
+                        if (in.position() > written
+                            || !id.equals(_graph.id(k))) {
+                            current = false;
+                            break;
+                        }
+                        index(msg);
+                        end = in.position();
+                    }
+                } catch (IndexOutOfBoundsException excp) {
+                    current = false;
+                }
+                current &= end == written;
+            }
+        }
+        if (!current || _byPosition.size() < size) {
+            catchUp(end, size);
+        }
+    }
+
+    /** Replace everything in the file after its first END bytes, which
+     *  hold the records read so far, by the records of the remaining
+     *  commits in the graph up to position SIZE, reading their messages
+     *  from the store, and rewrite its header. */
+    private void catchUp(long end, int size) {
+        Codec.Writer recs = new Codec.Writer();
+        for (int k = _byPosition.size(); k < size; k += 1) {
+            String id = _graph.id(k);
+            String msg = _store.readCommit(id).msg();
+            recs.id(id).string(msg);
+            index(msg);
+        }
+        byte[] bytes = recs.toByteArray();
+        try (RandomAccessFile out = new RandomAccessFile(_file, "rw")) {
+            out.seek(end);
+            out.write(bytes);
+            out.setLength(end + bytes.length);
+            writeHeader(out, size, end + bytes.length);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write %s.", _file.getName());
+        }
+    }
+
+    /** Write to OUT a header for COUNT records ending at END. */
+    private static void writeHeader(RandomAccessFile out, int count, long end)
+        throws IOException {
+        out.seek(0);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(count);
+        out.writeLong(end);
+    }
+
+    /** The index file. */
+    private final File _file;
+
+    /** The commit graph whose commits are indexed. */
+    private final CommitGraph _graph;
+
+    /** Store from which missing messages are read. */
+    private final ObjectStore _store;
+
+    /** Number of the distinct message of each commit, by graph position,
+     *  or null if not loaded. */
+    private ArrayList<Integer> _byPosition;
+
+    /** Distinct messages, in order of first appearance. */
+    private ArrayList<String> _distinct;
+
+    /** Number of each distinct message. */
+    private HashMap<String, Integer> _numbers;
+
+    /** Graph positions of the commits with each distinct message, in
+     *  increasing order, by message number. */
+    private ArrayList<List<Integer>> _commits;
+
+    /** Numbers of the distinct messages containing each term, in
+     *  increasing order, or null if not yet built. */
+    private HashMap<String, List<Integer>> _terms;
+}
@@ -0,0 +1,427 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/** An optional file-system monitor.  While "gitlet monitor" runs, it
+ *  watches every directory of the working tree and appends the path of
+ *  each file or directory that is created, changed or deleted to a
+ *  journal, numbering the entries.  A command remembers a token naming
+ *  the last entry it saw, and on its next run asks only about the paths
+ *  changed since, instead of listing or examining the whole tree.
+ *
+ *  The journal starts with a random epoch, which changes whenever the
+ *  monitor starts, loses events, or starts a fresh journal because the
+ *  old one grew too long.  The monitor also rewrites a heartbeat file,
+ *  holding the epoch, every HEARTBEAT_MS.  If the heartbeat is stale or
+ *  missing, or a token is from another epoch, callers are told nothing is
+ *  known and must fall back to a full scan.
+ *
+ *  A live monitor may still be behind: events already queued by the
+ *  operating system may not yet be journaled.  So each query first
+ *  creates a uniquely named cookie file in the monitor's cookie
+ *  directory, which the monitor also watches, and waits until the
+ *  cookie appears in the journal; every change made before the query
+ *  began is then journaled too.  If the cookie does not appear within
+ *  COOKIE_MS, callers must scan.
+ *  @author Austin Nicola Ardisaputra
+ */
+class Monitor {
+
+    /** Milliseconds between heartbeats. */
+    static final long HEARTBEAT_MS = 1000;
+
+    /** Age in milliseconds after which a heartbeat is considered dead. */
+    static final long STALE_MS = 5 * HEARTBEAT_MS;
+
+    /** Size in bytes past which the monitor starts a new journal. */
+    static final long JOURNAL_LIMIT = 1 << 20;
+
+    /** Magic number at the start of a journal. */
+    static final int MAGIC = 0x474d4a4c;
+
+    /** Milliseconds a query waits for its cookie to be journaled. */
+    static final long COOKIE_MS = 1000;
+
+    /** Prefix of the journaled paths of cookie files, which cannot be
+     *  the path of a working file. */
+    static final String COOKIE_PREFIX = ".gitlet/cookie/";
+
+    /** A monitor for the working tree ROOT of the repository whose gitlet
+     *  directory is MAINDIR. */
+    Monitor(File root, File mainDir) {
+        _root = root.toPath().toAbsolutePath().normalize();
+        _work = new WorkTree(root);
+        _dir = Utils.join(mainDir, "monitor");
+    }
+
+    /** Watch the working tree until stop is called, by this or another
+     *  process. */
+    void run() throws IOException, InterruptedException {
+        _dir.mkdirs();
+        stopFile(_dir).delete();
+        try (WatchService watcher = FileSystems.getDefault()
+                 .newWatchService()) {
+            _watcher = watcher;
+            startEpoch();
+            register(_root, "");
+            cookieDir(_dir).mkdirs();
+            _cookieKey = cookieDir(_dir).toPath().register(_watcher,
+                StandardWatchEventKinds.ENTRY_CREATE);
+            long nextBeat = 0;
+            while (!stopFile(_dir).exists()) {
+                if (System.currentTimeMillis() >= nextBeat) {
+                    Utils.writeContents(heartbeatFile(_dir),
+                                        Long.toString(_epoch));
+                    nextBeat = System.currentTimeMillis() + HEARTBEAT_MS;
+                }
+                WatchKey key = watcher.poll(HEARTBEAT_MS,
+                                            TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    process(key);
+                }
+            }
+        } finally {
+            if (_journal != null) {
+                _journal.close();
+            }
+            heartbeatFile(_dir).delete();
+            stopFile(_dir).delete();
+        }
+    }
+
+    /** Ask the monitor of the repository whose gitlet directory is MAINDIR
+     *  to stop, waiting up to STALE_MS for it to do so.  Returns false if
+     *  no monitor was running or it did not stop in time. */
+    static boolean stop(File mainDir) throws InterruptedException {
+        File dir = Utils.join(mainDir, "monitor");
+        if (!heartbeatFile(dir).exists()) {
+            return false;
+        }
+        Utils.writeContents(stopFile(dir), "");
+        long deadline = System.currentTimeMillis() + STALE_MS;
+        while (heartbeatFile(dir).exists()) {
+            if (System.currentTimeMillis() > deadline) {
+                stopFile(dir).delete();
+                return false;
+            }
+            Thread.sleep(HEARTBEAT_MS / 10);
+        }
+        return true;
+    }
+
+    /** What the journal says at one moment. */
+    static class Query {
+
+        /** A query result whose current token is TOKEN and whose changed
+         *  paths are CHANGED. */
+        Query(String token, Set<String> changed) {
+            _token = token;
+            _changed = changed;
+        }
+
+        /** Return the token naming the end of the journal, to pass as
+         *  SINCE to a later query. */
+        String token() {
+            return _token;
+        }
+
+        /** Return the paths of the files and directories changed since
+         *  the token given to the query, or null if that is unknown. */
+        Set<String> changed() {
+            return _changed;
+        }
+
+        /** Token naming the end of the journal. */
+        private final String _token;
+
+        /** Changed paths, or null. */
+        private final Set<String> _changed;
+    }
+
+    /** Return the journal of the monitor of the repository whose gitlet
+     *  directory is MAINDIR, with the paths changed after token SINCE (or
+     *  null changes if SINCE is null or from another epoch), or return
+     *  null if no monitor is running or it did not catch up with the
+     *  changes made before this call within COOKIE_MS.  The token must be
+     *  obtained before the files it covers are examined: a change made
+     *  while they are being examined is then reported again by the next
+     *  query. */
+    static Query query(File mainDir, String since) {
+        File dir = Utils.join(mainDir, "monitor");
+        File beat = heartbeatFile(dir);
+        if (!beat.exists()
+            || System.currentTimeMillis() - beat.lastModified() > STALE_MS) {
+            return null;
+        }
+        long epoch;
+        try {
+            epoch = Long.parseLong(Utils.readContentsAsString(beat));
+        } catch (IllegalArgumentException excp) {
+            return null;
+        }
+        String name = ProcessHandle.current().pid() + "-"
+            + ThreadLocalRandom.current().nextLong(Long.MAX_VALUE);
+        File cookie = new File(cookieDir(dir), name);
+        try {
+            if (!cookie.createNewFile()) {
+                return null;
+            }
+        } catch (IOException excp) {
+            return null;
+        }
+        try {
+            long deadline = System.currentTimeMillis() + COOKIE_MS;
+            while (true) {
+                Query result = read(dir, epoch, since, COOKIE_PREFIX + name);
+                if (result != QUERY_PENDING) {
+                    return result;
+                }
+                if (System.currentTimeMillis() > deadline) {
+                    return null;
+                }
+                Thread.sleep(COOKIE_POLL_MS);
+            }
+        } catch (InterruptedException excp) {
+            return null;
+        } finally {
+            cookie.delete();
+        }
+    }
+
+    /** Return the journal in monitor directory DIR, which must be of
+     *  epoch EPOCH, as a query result for token SINCE, or null if it
+     *  cannot be read or is of another epoch.  Returns QUERY_PENDING if
+     *  COOKIE, the journaled path of a cookie, is not yet in it.
+     *  Cookies are not reported as changed. */
+    private static Query read(File dir, long epoch, String since,
+                              String cookie) {
+        String prefix = epoch + ":";
+        long from = since != null && since.startsWith(prefix)
+            ? Long.parseLong(since.substring(prefix.length())) : -1;
+        Set<String> changed = from < 0 ? null : new HashSet<>();
+        long last = 0;
+        boolean synced = false;
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(Files.newInputStream(
+                     journalFile(dir).toPath())))) {
+            if (in.readInt() != MAGIC || in.readLong() != epoch) {
+                return null;
+            }
+            while (true) {
+                long seq = in.readLong();
+                String path = in.readUTF();
+                last = seq;
+                if (path.startsWith(COOKIE_PREFIX)) {
+                    synced |= path.equals(cookie);
+                } else if (changed != null && seq > from) {
+                    changed.add(path);
+                }
+            }
+        } catch (EOFException excp) {
+            /* A record being appended is picked up next time. */
+        } catch (IOException excp) {
+            return null;
+        }
+        if (!synced) {
+            return QUERY_PENDING;
+        }
+        if (from > last) {
+            changed = null;
+        }
+        return new Query(prefix + last, changed);
+    }
+
+    /** Watch directory DIR, whose path in the working tree is PREFIX, and
+     *  all its subdirectories that are not ignored.  Directories already
+     *  watched keep their keys. */
+    private void register(Path dir, String prefix) throws IOException {
+        WatchKey key = dir.register(_watcher,
+                                    StandardWatchEventKinds.ENTRY_CREATE,
+                                    StandardWatchEventKinds.ENTRY_DELETE,
+                                    StandardWatchEventKinds.ENTRY_MODIFY);
+        _keys.put(key, prefix);
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)
+                    && !name.equals(".gitlet")
+                    && !_work.ignored(prefix + name, name, true)) {
+                    register(entry, prefix + name + "/");
+                }
+            }
+        }
+    }
+
+    /** Journal the events waiting on KEY, unless rewatch has cancelled
+     *  it.  A change to the ignore file is journaled whatever its rules
+     *  say, and then the watches are brought into line with them. */
+    private void process(WatchKey key) throws IOException {
+        String prefix = _keys.get(key);
+        if (prefix == null && key != _cookieKey) {
+            return;
+        }
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                startEpoch();
+                continue;
+            }
+            String name = event.context().toString();
+            if (key == _cookieKey) {
+                record(COOKIE_PREFIX + name);
+                continue;
+            }
+            String path = prefix + name;
+            if (path.equals(WorkTree.IGNORE_FILE)) {
+                record(path);
+                rewatch();
+                continue;
+            }
+            Path full = _root.resolve(path);
+            boolean dir = Files.isDirectory(full, LinkOption.NOFOLLOW_LINKS);
+            if ((prefix.isEmpty() && name.equals(".gitlet"))
+                || _work.ignored(path, name, dir)) {
+                continue;
+            }
+            record(path);
+            if (dir && event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                register(full, path + "/");
+            }
+        }
+        if (!key.reset()) {
+            _keys.remove(key);
+        }
+    }
+
+    /** Reread the ignore rules, stop watching the directories they now
+     *  ignore, and start watching those they no longer do. */
+    private void rewatch() throws IOException {
+        _work.invalidate();
+        Iterator<Map.Entry<WatchKey, String>> keys =
+            _keys.entrySet().iterator();
+        while (keys.hasNext()) {
+            Map.Entry<WatchKey, String> entry = keys.next();
+            String prefix = entry.getValue();
+            String dir = prefix.isEmpty() ? ""
+                : prefix.substring(0, prefix.length() - 1);
+            if (!_work.entered(dir)) {
+                entry.getKey().cancel();
+                keys.remove();
+            }
+        }
+        register(_root, "");
+    }
+
+    /** Append PATH to the journal, starting a new one if it is full. */
+    private void record(String path) throws IOException {
+        _seq += 1;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream rec = new DataOutputStream(bytes);
+        rec.writeLong(_seq);
+        rec.writeUTF(path);
+        bytes.writeTo(_journal);
+        if (journalFile(_dir).length() > JOURNAL_LIMIT) {
+            startEpoch();
+        }
+    }
+
+    /** Replace the journal with an empty one under a new epoch, telling
+     *  readers holding older tokens that they must scan. */
+    private void startEpoch() throws IOException {
+        if (_journal != null) {
+            _journal.close();
+        }
+        _epoch = ThreadLocalRandom.current().nextLong(Long.MAX_VALUE);
+        _seq = 0;
+        File tmp = new File(_dir, "journal.tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                 new FileOutputStream(tmp))) {
+            out.writeInt(MAGIC);
+            out.writeLong(_epoch);
+        }
+        Files.move(tmp.toPath(), journalFile(_dir).toPath(),
+                   StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+        _journal = new FileOutputStream(journalFile(_dir), true);
+        Utils.writeContents(heartbeatFile(_dir), Long.toString(_epoch));
+    }
+
+    /** Return the journal file in monitor directory DIR. */
+    private static File journalFile(File dir) {
+        return new File(dir, "journal");
+    }
+
+    /** Return the directory of cookie files in monitor directory DIR. */
+    private static File cookieDir(File dir) {
+        return new File(dir, "cookies");
+    }
+
+    /** Return the heartbeat file in monitor directory DIR. */
+    private static File heartbeatFile(File dir) {
+        return new File(dir, "heartbeat");
+    }
+
+    /** Return the file whose presence in monitor directory DIR asks the
+     *  monitor to stop. */
+    private static File stopFile(File dir) {
+        return new File(dir, "stop");
+    }
+
+    /** Milliseconds between reads of the journal while waiting for a
+     *  cookie. */
+    private static final long COOKIE_POLL_MS = 2;
+
+    /** Result of read while the cookie is not yet journaled. */
+    private static final Query QUERY_PENDING = new Query(null, null);
+
+    /** Absolute path of the root of the working tree. */
+    private final Path _root;
+
+    /** The working tree, for its ignore rules. */
+    private final WorkTree _work;
+
+    /** Directory holding the journal and heartbeat. */
+    private final File _dir;
+
+    /** The watch service, while running. */
+    private WatchService _watcher;
+
+    /** Path within the working tree of each watched directory, followed
+     *  by '/', by watch key. */
+    private final HashMap<WatchKey, String> _keys = new HashMap<>();
+
+    /** The watch key of the cookie directory. */
+    private WatchKey _cookieKey;
+
+    /** The journal, open for appending. */
+    private FileOutputStream _journal;
+
+    /** Current epoch. */
+    private long _epoch;
+
+    /** Number of the last journal entry. */
+    private long _seq;
+}
@@ -0,0 +1,108 @@
+package gitlet;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A least-recently-used cache of objects read from the object store,
+ *  bounded by an estimate of the memory its entries occupy rather than by
+ *  their number.  The budget, in bytes, is taken from the system property
+ *  gitlet.cacheBytes, defaulting to DEFAULT_BUDGET.
+ *  @author Austin Nicola Ardisaputra
+ */
+class ObjectCache {
+
+    /** Default memory budget in bytes. */
+    static final long DEFAULT_BUDGET = 64L << 20;
+
+    /** Estimated fixed cost of any cached entry, in bytes. */
+    static final int ENTRY_OVERHEAD = 96;
+
+    /** A cache using the configured budget. */
+    ObjectCache() {
+        this(Long.getLong("gitlet.cacheBytes", DEFAULT_BUDGET));
+    }
+
+    /** A cache holding at most BUDGET bytes of entries. */
+    ObjectCache(long budget) {
+        _budget = budget;
+    }
+
+    /** Return the object cached under ID, or null if there is none. */
+    synchronized Object get(String id) {
+        Object result = _entries.get(id);
+        if (result == null) {
+            _misses += 1;
+        } else {
+            _hits += 1;
+        }
+        return result;
+    }
+
+    /** Cache OBJ under ID, charging WEIGHT bytes plus ENTRY_OVERHEAD
+     *  against the budget and evicting the least recently used entries as
+     *  needed.  Objects larger than the whole budget are not cached. */
+    synchronized void put(String id, Object obj, long weight) {
+        weight += ENTRY_OVERHEAD;
+        if (weight > _budget) {
+            return;
+        }
+        Long old = _weights.put(id, weight);
+        if (old != null) {
+            _size -= old;
+        }
+        _entries.put(id, obj);
+        _size += weight;
+        Iterator<String> eldest = _entries.keySet().iterator();
+        while (_size > _budget) {
+            String victim = eldest.next();
+            eldest.remove();
+            _size -= _weights.remove(victim);
+            _evictions += 1;
+        }
+    }
+
+    /** Return the number of lookups that found an entry. */
+    synchronized long hits() {
+        return _hits;
+    }
+
+    /** Return the number of lookups that found nothing. */
+    synchronized long misses() {
+        return _misses;
+    }
+
+    /** Return the number of entries evicted to stay within budget. */
+    synchronized long evictions() {
+        return _evictions;
+    }
+
+    /** Return the estimated bytes currently cached. */
+    synchronized long size() {
+        return _size;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("object cache: %d hits, %d misses, "
+                             + "%d evictions, %d/%d bytes",
+                             _hits, _misses, _evictions, _size, _budget);
+    }
+
+    /** Memory budget in bytes. */
+    private final long _budget;
+
+    /** Cached objects, least recently used first. */
+    private final LinkedHashMap<String, Object> _entries =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Weight charged for each cached id. */
+    private final Map<String, Long> _weights = new HashMap<>();
+
+    /** Total weight of cached entries. */
+    private long _size;
+
+    /** Lookup and eviction counters. */
+    private long _hits, _misses, _evictions;
+}
@@ -0,0 +1,576 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/** The object database of a repository.  Objects are either loose, one
+ *  file per object under a two-character fan-out directory, or packed
+ *  into pack files under .gitlet/pack.  Reads consult the packs first and
+ *  fall back to loose objects.
+ *  @author Austin Nicola Ardisaputra
+ */
+class ObjectStore {
+
+    /** Object type of commits. */
+    static final int COMMIT = 1;
+
+    /** Object type of blobs. */
+    static final int BLOB = 2;
+
+    /** Object type of trees. */
+    static final int TREE = 3;
+
+    /** A store for the repository whose gitlet directory is MAINDIR. */
+    ObjectStore(File mainDir) {
+        _comFolder = Utils.join(mainDir, "com");
+        _blobFolder = Utils.join(mainDir, "blob");
+        _treeFolder = Utils.join(mainDir, "tree");
+        _packFolder = Utils.join(mainDir, "pack");
+        _graphFile = Utils.join(mainDir, "commit-graph");
+        _messagesFile = Utils.join(mainDir, "commit-messages");
+        _timesFile = Utils.join(mainDir, "commit-times");
+        _commitIds = new IdIndex(Utils.join(mainDir, "commit-ids"),
+                                 () -> ids(COMMIT));
+    }
+
+    /** Return true iff the object ID of type TYPE exists. */
+    boolean contains(String id, int type) {
+        return isPacked(id) || loosePath(id, type).isFile();
+    }
+
+    /** Return the object ID of type TYPE, cast to EXPECTEDCLASS. */
+    <T extends Serializable> T read(String id, int type,
+                                    Class<T> expectedClass) {
+        return Utils.readObject(open(id, type), expectedClass);
+    }
+
+    /** Store OBJ as a loose object ID of type TYPE, unless it is already
+     *  present.  Commits are stored with writeCommit. */
+    void write(String id, int type, Serializable obj) {
+        if (contains(id, type)) {
+            return;
+        }
+        File loose = loosePath(id, type);
+        loose.getParentFile().mkdir();
+        Utils.writeObject(loose, obj);
+    }
+
+    /** Store COMMIT, whose id is ID, in its binary encoding, unless it is
+     *  already present. */
+    void writeCommit(String id, Commit commit) {
+        if (contains(id, COMMIT)) {
+            return;
+        }
+        File loose = loosePath(id, COMMIT);
+        loose.getParentFile().mkdir();
+        Utils.writeCompressed(loose, commit.encode());
+        commit.setId(id);
+        _commitIds.add(id);
+        int k = graph().add(id, commit);
+        messages().add(k, id, commit.msg());
+        times().add(k);
+    }
+
+    /** Return commit ID, from the object cache if possible.  Commits may
+     *  be encoded or, if written by older versions, serialized; loose
+     *  serialized commits are rewritten in the binary encoding as they
+     *  are read.  The commit keeps ID as its hash.  If VERIFY, ID is first
+     *  checked against the commit's content. */
+    Commit readCommit(String id) {
+        Commit commit = (Commit) _cache.get(id);
+        if (commit == null) {
+            byte[] data = Utils.readStored(open(id, COMMIT));
+            boolean legacy = !Codec.hasMagic(data, Commit.MAGIC);
+            commit = legacy ? Utils.deserialize(data, Commit.class)
+                : Commit.decode(data);
+            if (VERIFY && !commit.hasId(id)) {
+                throw Utils.error("Commit %s does not match its id.", id);
+            }
+            if (legacy && !isPacked(id)) {
+                Utils.writeCompressed(loosePath(id, COMMIT), commit.encode());
+            }
+            commit.setId(id);
+            _cache.put(id, commit, 2 * commit.msg().length()
+                       + (commit.getBlobs() == null ? 0 : COMMIT_ENTRY_WEIGHT
+                          * commit.getBlobs().size()));
+        }
+        return commit;
+    }
+
+    /** Store TREE, unless it is already present, and return its id. */
+    String writeTree(Tree tree) {
+        String id = tree.hash();
+        if (!contains(id, TREE)) {
+            File loose = loosePath(id, TREE);
+            loose.getParentFile().mkdirs();
+            Utils.writeCompressed(loose, tree.encode());
+        }
+        return id;
+    }
+
+    /** Return tree ID, from the object cache if possible. */
+    Tree readTree(String id) {
+        if (id.equals(Tree.EMPTY.hash())) {
+            return Tree.EMPTY;
+        }
+        Tree tree = (Tree) _cache.get(id);
+        if (tree == null) {
+            tree = Tree.decode(Utils.readStored(open(id, TREE)));
+            _cache.put(id, tree, COMMIT_ENTRY_WEIGHT * tree.size());
+        }
+        return tree;
+    }
+
+    /** Return the id of the tree of COMMIT.  For commits made before trees
+     *  were introduced, the tree is built from the commit's files and
+     *  stored. */
+    String treeOf(Commit commit) {
+        if (commit.tree() != null) {
+            return commit.tree();
+        }
+        return Tree.update(this, Tree.EMPTY.hash(), commit.getBlobs());
+    }
+
+    /** Return the map of paths to blob ids of COMMIT, which must not be
+     *  modified.  For commits with a tree, the map is built by reading the
+     *  tree and kept in the object cache. */
+    SortedMap<String, String> files(Commit commit) {
+        if (commit.tree() == null) {
+            return Collections.unmodifiableSortedMap(commit.getBlobs());
+        }
+        String key = FILES_KEY + commit.tree();
+        @SuppressWarnings("unchecked")
+        SortedMap<String, String> files =
+            (SortedMap<String, String>) _cache.get(key);
+        if (files == null) {
+            TreeMap<String, String> all = new TreeMap<>();
+            Tree.flatten(this, commit.tree(), "", all);
+            files = Collections.unmodifiableSortedMap(all);
+            _cache.put(key, files, COMMIT_ENTRY_WEIGHT * all.size());
+        }
+        return files;
+    }
+
+    /** Return the paths whose blobs differ between commits A and B, each
+     *  mapped to its blob ids in A and B (null where absent), in path
+     *  order.  Directories whose trees are identical are skipped. */
+    TreeMap<String, String[]> diff(Commit a, Commit b) {
+        TreeMap<String, String[]> changes = new TreeMap<>();
+        Tree.diff(this, treeOf(a), treeOf(b), "", changes);
+        return changes;
+    }
+
+    /** Return the blob ID, reconstructing it if it is stored as a delta.
+     *  Blob contents, including the bases rebuilt along the way, are kept
+     *  in the object cache, so the deltas of a chain share the work of
+     *  rebuilding their common bases. */
+    Blob readBlob(String id) {
+        ArrayList<BlobDelta> chain = new ArrayList<>();
+        byte[] content = (byte[]) _cache.get(id);
+        String curr = id;
+        while (content == null) {
+            Serializable obj = readBlobObject(curr);
+            if (obj instanceof Blob) {
+                content = ((Blob) obj).content();
+            } else {
+                BlobDelta delta = (BlobDelta) obj;
+                chain.add(delta);
+                curr = delta.base();
+                content = (byte[]) _cache.get(curr);
+            }
+        }
+        for (int k = chain.size() - 1; k >= 0; k -= 1) {
+            content = chain.get(k).apply(content);
+            _cache.put(k == 0 ? id : chain.get(k - 1).base(), content,
+                       content.length);
+        }
+        if (chain.isEmpty()) {
+            _cache.put(id, content, content.length);
+        }
+        if (VERIFY && !Blob.hashOf(content).equals(id)) {
+            throw Utils.error("Blob %s does not match its id.", id);
+        }
+        return new Blob(content);
+    }
+
+    /** Store BLOB, as a delta against the blob BASE if BASE is non-null and
+     *  a delta is worthwhile, and otherwise in full. */
+    void writeBlob(Blob blob, String base) {
+        String id = blob.hash();
+        if (contains(id, BLOB)) {
+            return;
+        }
+        if (base != null && !base.equals(id) && contains(base, BLOB)
+            && !isRaw(base)) {
+            Serializable baseObj = read(base, BLOB, Serializable.class);
+            int depth = baseObj instanceof BlobDelta
+                ? ((BlobDelta) baseObj).depth() : 0;
+            BlobDelta delta = depth >= BlobDelta.MAX_DEPTH ? null
+                : BlobDelta.make(base, depth, readBlob(base).content(),
+                                 blob.content());
+            if (delta != null) {
+                write(id, BLOB, delta);
+                return;
+            }
+        }
+        write(id, BLOB, blob);
+    }
+
+    /** Store the contents of FILE as a blob and return its id.  The file is
+     *  read in fixed-size chunks that are hashed and copied to the object
+     *  store as they arrive, so memory use does not depend on the size of
+     *  FILE.  The blob is stored uncompressed after RAW_MARKER so that it
+     *  can be copied back out with transferTo. */
+    String writeStream(File file) {
+        MessageDigest md = Utils.sha1Digest();
+        md.update("blob".getBytes(StandardCharsets.UTF_8));
+        ByteBuffer buf = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        File tmp;
+        try {
+            _blobFolder.mkdir();
+            tmp = File.createTempFile("blob", ".tmp", _blobFolder);
+            try (FileChannel in = FileChannel.open(file.toPath());
+                 FileChannel out = FileChannel.open(tmp.toPath(),
+                         StandardOpenOption.WRITE)) {
+                out.write(ByteBuffer.wrap(RAW_MARKER));
+                while (in.read(buf) >= 0) {
+                    buf.flip();
+                    md.update(buf.duplicate());
+                    while (buf.hasRemaining()) {
+                        out.write(buf);
+                    }
+                    buf.clear();
+                }
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot store %s.", file.getName());
+        }
+        String id = Utils.bytesToHex(md.digest());
+        if (contains(id, BLOB)) {
+            tmp.delete();
+            return id;
+        }
+        File loose = loosePath(id, BLOB);
+        loose.getParentFile().mkdir();
+        try {
+            Files.move(tmp.toPath(), loose.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            tmp.delete();
+            throw Utils.error("Cannot store %s.", file.getName());
+        }
+        return id;
+    }
+
+    /** Write the content of blob ID to FILE.  Blobs stored by writeStream
+     *  are copied channel to channel without passing through the heap. */
+    void checkoutBlob(String id, File file) {
+        if (!isRaw(id)) {
+            Utils.writeContents(file, readBlob(id).content());
+            return;
+        }
+        try (FileChannel in = FileChannel.open(loosePath(id, BLOB).toPath());
+             FileChannel out = FileChannel.open(file.toPath(),
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            long pos = RAW_MARKER.length, size = in.size();
+            while (pos < size) {
+                pos += in.transferTo(pos, size - pos, out);
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write %s.", file.getName());
+        }
+    }
+
+    /** Return the commit graph, opening it on first use. */
+    CommitGraph graph() {
+        if (_graph == null) {
+            _graph = new CommitGraph(_graphFile, this);
+        }
+        return _graph;
+    }
+
+    /** Return the index of commit messages, opening it on first use. */
+    MessageIndex messages() {
+        if (_messages == null) {
+            _messages = new MessageIndex(_messagesFile, graph(), this);
+        }
+        return _messages;
+    }
+
+    /** Return the index of commits by time, opening it on first use. */
+    TimeIndex times() {
+        if (_times == null) {
+            _times = new TimeIndex(_timesFile, graph());
+        }
+        return _times;
+    }
+
+    /** Return the object cache, whose counters are used for tuning. */
+    ObjectCache cache() {
+        return _cache;
+    }
+
+    /** Return the full id of the object of type TYPE whose id starts with
+     *  PREFIX, or null if there is none.  Commit ids are looked up in the
+     *  commit id index.  Throws a GitletException if more than one object
+     *  matches. */
+    String resolve(String prefix, int type) {
+        if (prefix.length() < 2 || !prefix.matches("[0-9a-f]+")) {
+            return null;
+        }
+        if (prefix.length() >= Utils.UID_LENGTH) {
+            return contains(prefix, type) ? prefix : null;
+        }
+        List<String> found;
+        if (type == COMMIT) {
+            found = _commitIds.findPrefix(prefix, 2);
+        } else {
+            found = new ArrayList<>();
+            for (PackFile pack : packs()) {
+                pack.findPrefix(prefix, type, found);
+            }
+            File sub = Utils.join(folder(type), prefix.substring(0, 2));
+            List<String> names = Utils.plainFilenamesIn(sub);
+            if (names != null) {
+                for (String name : names) {
+                    if (name.startsWith(prefix.substring(2))) {
+                        found.add(prefix.substring(0, 2) + name);
+                    }
+                }
+            }
+        }
+        if (found.size() > 1) {
+            throw Utils.error("Ambiguous id prefix %s.", prefix);
+        }
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    /** Return the ids of all objects of type TYPE, packed and loose. */
+    List<String> ids(int type) {
+        List<String> result = new ArrayList<>();
+        for (PackFile pack : packs()) {
+            for (int k = 0; k < pack.size(); k += 1) {
+                if (pack.type(k) == type) {
+                    result.add(pack.id(k));
+                }
+            }
+        }
+        File[] subs = folder(type).listFiles(File::isDirectory);
+        if (subs != null) {
+            for (File sub : subs) {
+                for (String name : Utils.plainFilenamesIn(sub)) {
+                    result.add(sub.getName() + name);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Move all loose objects into a new pack and delete the loose copies.
+     *  Serialized commits are converted to the binary encoding on the
+     *  way.  Returns the number of objects packed. */
+    int repack() {
+        TreeMap<String, Integer> types = new TreeMap<>();
+        TreeMap<String, File> files = new TreeMap<>();
+        for (int type : new int[] { COMMIT, BLOB, TREE }) {
+            File[] subs = folder(type).listFiles(File::isDirectory);
+            if (subs == null) {
+                continue;
+            }
+            for (File sub : subs) {
+                for (String name : Utils.plainFilenamesIn(sub)) {
+                    String id = sub.getName() + name;
+                    if (!isPacked(id) && !isRaw(id)) {
+                        types.put(id, type);
+                        files.put(id, new File(sub, name));
+                    }
+                }
+            }
+        }
+        if (types.isEmpty()) {
+            return 0;
+        }
+        _packFolder.mkdir();
+        PackFile pack = PackFile.write(_packFolder, types, id -> {
+            if (types.get(id) == COMMIT) {
+                readCommit(id);
+            }
+            return Utils.readContents(files.get(id));
+        });
+        packs().add(0, pack);
+        for (File loose : files.values()) {
+            loose.delete();
+            loose.getParentFile().delete();
+        }
+        return types.size();
+    }
+
+    /** Return the loose-object file for ID of type TYPE. */
+    File loosePath(String id, int type) {
+        return Utils.join(folder(type), id.substring(0, 2), id.substring(2));
+    }
+
+    /** Return the loose-object folder for objects of type TYPE. */
+    private File folder(int type) {
+        return type == COMMIT ? _comFolder
+            : type == TREE ? _treeFolder : _blobFolder;
+    }
+
+    /** Return a stream over the stored form of object ID of type TYPE. */
+    private InputStream open(String id, int type) {
+        InputStream packed = openPacked(id);
+        if (packed != null) {
+            return packed;
+        }
+        try {
+            return new FileInputStream(loosePath(id, type));
+        } catch (IOException excp) {
+            throw Utils.error("No object with that id exists.");
+        }
+    }
+
+    /** Return blob ID as stored: a Blob, or a BlobDelta. */
+    private Serializable readBlobObject(String id) {
+        try (BufferedInputStream in =
+                 new BufferedInputStream(open(id, BLOB))) {
+            in.mark(RAW_MARKER.length);
+            if (Arrays.equals(in.readNBytes(RAW_MARKER.length), RAW_MARKER)) {
+                return new Blob(in.readAllBytes());
+            }
+            in.reset();
+            return Utils.readObject(in, Serializable.class);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read object %s.", id);
+        }
+    }
+
+    /** Return true iff blob ID is a loose blob stored by writeStream. */
+    private boolean isRaw(String id) {
+        if (isPacked(id)) {
+            return false;
+        }
+        try (InputStream in = new FileInputStream(loosePath(id, BLOB))) {
+            return Arrays.equals(in.readNBytes(RAW_MARKER.length),
+                                 RAW_MARKER);
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Return true iff the object with full id ID is in some pack. */
+    private boolean isPacked(String id) {
+        if (id.length() != Utils.UID_LENGTH || packs().isEmpty()) {
+            return false;
+        }
+        byte[] key = Utils.hexToBytes(id);
+        for (PackFile pack : packs()) {
+            if (pack.find(key) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return a stream over the object with full id ID from the first
+     *  pack containing it, or null if it is not packed. */
+    private InputStream openPacked(String id) {
+        if (id.length() != Utils.UID_LENGTH || packs().isEmpty()) {
+            return null;
+        }
+        byte[] key = Utils.hexToBytes(id);
+        for (PackFile pack : packs()) {
+            int k = pack.find(key);
+            if (k >= 0) {
+                return pack.open(k);
+            }
+        }
+        return null;
+    }
+
+    /** Return the packs of this repository, opening them on first use. */
+    private synchronized List<PackFile> packs() {
+        if (_packs == null) {
+            _packs = PackFile.openAll(_packFolder);
+        }
+        return _packs;
+    }
+
+    /** True iff objects read are checked against their ids, as set by the
+     *  system property gitlet.verify. */
+    static final boolean VERIFY = Boolean.getBoolean("gitlet.verify");
+
+    /** Files at least this large are added with writeStream. */
+    static final long STREAM_THRESHOLD = 1 << 20;
+
+    /** Size of the chunks in which writeStream reads files. */
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    /** Leading bytes of a blob stored uncompressed by writeStream.  Such
+     *  blobs are left loose by repack so that they can be copied with
+     *  transferTo. */
+    static final byte[] RAW_MARKER = { 'G', 'R', 1 };
+
+    /** Folder containing loose commits. */
+    private final File _comFolder;
+
+    /** Folder containing loose blobs. */
+    private final File _blobFolder;
+
+    /** Folder containing loose trees. */
+    private final File _treeFolder;
+
+    /** Folder containing packs. */
+    private final File _packFolder;
+
+    /** Estimated bytes taken by one path-to-blob entry of a cached commit:
+     *  two 40-character strings and a map node. */
+    private static final int COMMIT_ENTRY_WEIGHT = 200;
+
+    /** Prefix of the cache keys of the file maps built by files. */
+    private static final String FILES_KEY = "files:";
+
+    /** Recently read commits, trees, file maps and blob contents. */
+    private final ObjectCache _cache = new ObjectCache();
+
+    /** File holding the commit graph. */
+    private final File _graphFile;
+
+    /** The commit graph, or null if not yet opened. */
+    private CommitGraph _graph;
+
+    /** File holding the index of commit messages. */
+    private final File _messagesFile;
+
+    /** The index of commit messages, or null if not yet opened. */
+    private MessageIndex _messages;
+
+    /** File holding the index of commits by time. */
+    private final File _timesFile;
+
+    /** The index of commits by time, or null if not yet opened. */
+    private TimeIndex _times;
+
+    /** Index of all commit ids, for abbreviated ids. */
+    private final IdIndex _commitIds;
+
+    /** Open packs, newest first, or null if not yet opened. */
+    private List<PackFile> _packs;
+}
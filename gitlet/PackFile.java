@@ -0,0 +1,320 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/** A read-only pack of many objects stored in one file, together with its
+ *  sorted index.  The pack file (.pack) is a header followed by the raw
+ *  object records.  The index file (.idx) holds a 256-entry fanout table,
+ *  the sorted 20-byte object ids, one type byte per object, and the offset
+ *  of each object in the pack.  The index is memory-mapped and searched in
+ *  place, so opening a pack costs no parsing.
+ *  @author Austin Nicola Ardisaputra
+ */
+class PackFile {
+
+    /** Magic number at the start of a pack file. */
+    static final int PACK_MAGIC = 0x4750414b;
+
+    /** Magic number at the start of an index file. */
+    static final int IDX_MAGIC = 0x47494458;
+
+    /** Current pack and index format version. */
+    static final int VERSION = 1;
+
+    /** Length of a binary object id. */
+    static final int ID_BYTES = 20;
+
+    /** Size of the index header: magic, version and fanout table. */
+    private static final int IDX_HEADER = 8 + 256 * 4;
+
+    /** Size of the pack header: magic, version and object count. */
+    private static final int PACK_HEADER = 12;
+
+    /** Open the pack whose index is IDXFILE. */
+    PackFile(File idxFile) {
+        String name = idxFile.getName();
+        _idxFile = idxFile;
+        _packFile = new File(idxFile.getParentFile(),
+                name.substring(0, name.length() - 4) + ".pack");
+        try (FileChannel ch = FileChannel.open(idxFile.toPath())) {
+            _idx = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException excp) {
+            throw Utils.error("Cannot open pack index %s.", name);
+        }
+        if (_idx.getInt(0) != IDX_MAGIC || _idx.getInt(4) != VERSION) {
+            throw Utils.error("Bad pack index %s.", name);
+        }
+        _count = _idx.getInt(IDX_HEADER - 4);
+    }
+
+    /** Return the number of objects in this pack. */
+    int size() {
+        return _count;
+    }
+
+    /** Return the index file of this pack. */
+    File idxFile() {
+        return _idxFile;
+    }
+
+    /** Return the position of the object whose binary id is ID in this
+     *  pack's index, or -1 if it is not present. */
+    int find(byte[] id) {
+        int lo = fanout((id[0] & 0xff) - 1), hi = fanout(id[0] & 0xff) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compareId(mid, id, ID_BYTES);
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Add to RESULT the hex ids of all objects of type TYPE whose ids
+     *  start with the hex digits PREFIX (at least two digits). */
+    void findPrefix(String prefix, int type, List<String> result) {
+        byte[] lowKey = Utils.hexToBytes(prefix.length() % 2 == 0
+                ? prefix : prefix + "0");
+        int lo = fanout((lowKey[0] & 0xff) - 1),
+            hi = fanout(lowKey[0] & 0xff);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareId(mid, lowKey, lowKey.length) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int k = lo; k < _count; k += 1) {
+            String id = id(k);
+            if (!id.startsWith(prefix)) {
+                break;
+            }
+            if (type(k) == type) {
+                result.add(id);
+            }
+        }
+    }
+
+    /** Return the hex id of the object at index position K. */
+    String id(int k) {
+        byte[] id = new byte[ID_BYTES];
+        _idx.get(IDX_HEADER + k * ID_BYTES, id);
+        return Utils.bytesToHex(id);
+    }
+
+    /** Return the type of the object at index position K. */
+    int type(int k) {
+        return _idx.get(IDX_HEADER + _count * ID_BYTES + k);
+    }
+
+    /** Return a stream over the contents of the object at index position
+     *  K.  The contents are read from the pack as the stream is consumed. */
+    InputStream open(int k) {
+        long off = _idx.getLong(IDX_HEADER + _count * (ID_BYTES + 1) + k * 8);
+        try {
+            FileChannel ch = channel();
+            ByteBuffer head = ByteBuffer.allocate(5);
+            readFully(ch, head, off);
+            return new PackStream(ch, off + 5, head.getInt(1));
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read pack %s.", _packFile.getName());
+        }
+    }
+
+    /** Return the open channel on the pack file, opening it on first use.
+     *  The channel stays open for the life of the process so that repeated
+     *  lookups do not reopen the file. */
+    private synchronized FileChannel channel() throws IOException {
+        if (_pack == null) {
+            _pack = FileChannel.open(_packFile.toPath());
+        }
+        return _pack;
+    }
+
+    /** Return the fanout entry for leading byte B: the number of objects
+     *  whose first id byte is at most B.  B may be -1. */
+    private int fanout(int b) {
+        return b < 0 ? 0 : _idx.getInt(8 + b * 4);
+    }
+
+    /** Compare the first LEN bytes of the id at position K with KEY. */
+    private int compareId(int k, byte[] key, int len) {
+        int base = IDX_HEADER + k * ID_BYTES;
+        for (int i = 0; i < len; i += 1) {
+            int c = Integer.compare(_idx.get(base + i) & 0xff, key[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** Fill BUF from CH starting at file position POS. */
+    private static void readFully(FileChannel ch, ByteBuffer buf, long pos)
+        throws IOException {
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, pos);
+            if (n < 0) {
+                throw new IOException("truncated pack");
+            }
+            pos += n;
+        }
+    }
+
+    /** Write a new pack into directory DIR containing the objects in
+     *  TYPES, a map from hex id to object type, and return it.  The contents
+     *  of each object are fetched one at a time with CONTENTS. */
+    static PackFile write(File dir, TreeMap<String, Integer> types,
+                          Function<String, byte[]> contents) {
+        String name = "pack-" + Utils.sha1(String.join("",
+                types.keySet()));
+        File pack = new File(dir, name + ".pack");
+        File idx = new File(dir, name + ".idx");
+        File tmpPack = new File(dir, name + ".pack.tmp");
+        File tmpIdx = new File(dir, name + ".idx.tmp");
+        int n = types.size();
+        int[] fanout = new int[256];
+        long[] offsets = new long[n];
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(
+                        tmpPack.toPath())))) {
+            out.writeInt(PACK_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(n);
+            long off = PACK_HEADER;
+            int k = 0;
+            for (Map.Entry<String, Integer> e : types.entrySet()) {
+                byte[] data = contents.apply(e.getKey());
+                offsets[k] = off;
+                out.writeByte(e.getValue());
+                out.writeInt(data.length);
+                out.write(data);
+                off += 5 + data.length;
+                fanout[Integer.parseInt(e.getKey().substring(0, 2), 16)] += 1;
+                k += 1;
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write pack %s.", name);
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(
+                        tmpIdx.toPath())))) {
+            out.writeInt(IDX_MAGIC);
+            out.writeInt(VERSION);
+            int total = 0;
+            for (int count : fanout) {
+                total += count;
+                out.writeInt(total);
+            }
+            for (String id : types.keySet()) {
+                out.write(Utils.hexToBytes(id));
+            }
+            for (int type : types.values()) {
+                out.writeByte(type);
+            }
+            for (long off : offsets) {
+                out.writeLong(off);
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write pack index %s.", name);
+        }
+        try {
+            Files.move(tmpPack.toPath(), pack.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmpIdx.toPath(), idx.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot install pack %s.", name);
+        }
+        return new PackFile(idx);
+    }
+
+    /** Return the packs in directory DIR, newest first. */
+    static List<PackFile> openAll(File dir) {
+        List<PackFile> result = new ArrayList<>();
+        File[] idxs = dir.listFiles((d, name) -> name.endsWith(".idx"));
+        if (idxs == null) {
+            return result;
+        }
+        Arrays.sort(idxs, (a, b) -> Long.compare(b.lastModified(),
+                a.lastModified()));
+        for (File idx : idxs) {
+            result.add(new PackFile(idx));
+        }
+        return result;
+    }
+
+    /** An input stream over LENGTH bytes of a pack channel starting at a
+     *  given position.  Reads are positional, so several streams may share
+     *  one channel. */
+    private static class PackStream extends InputStream {
+
+        /** A stream over the LEN bytes of CH starting at POS. */
+        PackStream(FileChannel ch, long pos, int len) {
+            _ch = ch;
+            _pos = pos;
+            _end = pos + len;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (_pos >= _end) {
+                return -1;
+            }
+            len = (int) Math.min(len, _end - _pos);
+            int n = _ch.read(ByteBuffer.wrap(b, off, len), _pos);
+            if (n < 0) {
+                throw new IOException("truncated pack");
+            }
+            _pos += n;
+            return n;
+        }
+
+        /** The pack channel. */
+        private final FileChannel _ch;
+        /** Current position and end of the object in the pack. */
+        private long _pos, _end;
+    }
+
+    /** The index file. */
+    private final File _idxFile;
+
+    /** The pack file. */
+    private final File _packFile;
+
+    /** The memory-mapped index. */
+    private final MappedByteBuffer _idx;
+
+    /** Number of objects in the pack. */
+    private final int _count;
+
+    /** Channel on the pack file, or null if not yet opened. */
+    private FileChannel _pack;
+}
@@ -1,22 +1,38 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.TreeMap;
 import java.util.Map;
+import java.util.SortedMap;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.Iterator;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class Repo {
 
-    /** HEAD commit. */
-    private Commit _head;
+    /** Number of characters of log output collected before it is
+     *  written. */
+    private static final int OUT_BUFFER = 1 << 16;
 
-    /** Stage object. */
-    private Stage _stage = new Stage();
+    /** HEAD commit, or null if not yet read. */
+    private Commit _head;
 
-    /** Map of branch names to their respective heads. */
-    private TreeMap<String, String> _heads = new TreeMap<String, String>();
+    /** Stage object, or null if not yet read. */
+    private Stage _stage;
 
     /** If merge conflic occured. */
     private boolean _conflict = false;
@@ -39,34 +55,65 @@ public class Repo {
     /** Folder containing blobs. */
     private final File _blobFolder = Utils.join(_mainDir, "/blob");
 
+    /** Object database holding commits and blobs. */
+    private final ObjectStore _store = new ObjectStore(_mainDir);
+
+    /** The working tree. */
+    private final WorkTree _work = new WorkTree(new File("."), _mainDir);
+
     /** Folder for remotes. */
     private final File _remotesFile = Utils.join(_mainDir, "/remotes");
 
-    /** Limit before estimation of hash. */
-    private int _hashLim = 40;
+    /** True iff index and ref writes are deferred until checkpoint. */
+    private boolean _deferred;
+
+    /** Deferred ref contents by path, or null for deleted refs. */
+    private final LinkedHashMap<String, String> _pendingRefs =
+        new LinkedHashMap<>();
+
+    /** True iff the deferred index write must be a full one. */
+    private boolean _stageRewrite;
 
     /** Map of remotes. */
     private TreeMap<String, File> _remotes = new TreeMap<String, File>();
 
-    public Stage stage() {
+    /** Return the stage, reading the index on first use.  Synchronized,
+     *  like head and headId, because I/O executor workers may make the
+     *  first call. */
+    public synchronized Stage stage() {
+        if (_stage == null) {
+            _stage = _mainDir.exists() ? Stage.read(_index) : new Stage();
+        }
         return _stage;
     }
 
-    public Repo() {
-        if (_mainDir.exists()) {
-            _stage = _index.length() > 0
-                    ? Utils.readObject(_index, gitlet.Stage.class)
-                    : new Stage();
-            File headPath = new File(Utils.readContentsAsString(_headFile));
-            _head = hashToCommit(Utils.readContentsAsString(headPath));
-            File[] branches = _headsFolder.listFiles();
-            if (branches != null) {
-                for (File branch : branches) {
-                    _heads.put(branch.getName(),
-                            Utils.readContentsAsString(branch));
-                }
-            }
+    /** Return the HEAD commit, reading it on first use. */
+    private synchronized Commit head() {
+        if (_head == null) {
+            _head = hashToCommit(headId());
         }
+        return _head;
+    }
+
+    /** Return the id of the HEAD commit, without reading the commit. */
+    private synchronized String headId() {
+        if (_head != null) {
+            return _head.hash();
+        }
+        return readRef(new File(readRef(_headFile)));
+    }
+
+    /** Return the names of the parts of the repository's state that have
+     *  been read so far, for startup statistics. */
+    String loaded() {
+        String result = (_stage == null ? "" : " index")
+            + (_head == null ? "" : " head");
+        return result.isEmpty() ? "nothing" : result.substring(1);
+    }
+
+    /** A repository in the current directory.  Its state is read as it is
+     *  first needed, so that commands needing little of it start fast. */
+    public Repo() {
     }
 
     public void init() {
@@ -75,9 +122,9 @@ public class Repo {
                     + "already exists in the current directory.");
         }
 
-        Commit firstCommit = new Commit("initial commit", "");
+        Commit firstCommit = new Commit("initial commit", "",
+                Tree.EMPTY.hash());
         File master = Utils.join(_headsFolder, "/master");
-        File[] commitFilePath = hashToPath(firstCommit.hash(), true);
 
         try {
             _mainDir.mkdir();
@@ -88,41 +135,122 @@ public class Repo {
             _headsFolder.mkdir();
             _remotesFile.createNewFile();
             master.createNewFile();
-            commitFilePath[0].mkdir();
-            commitFilePath[1].createNewFile();
         } catch (Exception e) {
             System.out.println(e.getMessage());
         }
 
-        Utils.writeObject(commitFilePath[1], firstCommit);
-        Utils.writeContents(_headFile, master.getPath());
-        Utils.writeContents(master, firstCommit.hash());
+        _store.writeCommit(firstCommit.hash(), firstCommit);
+        writeRef(_headFile, master.getPath());
+        writeRef(master, firstCommit.hash());
     }
 
     public void add(String fileName) {
-        File file = new File("./" + fileName);
-        if (!file.exists()) {
-            throw new GitletException("File does not exist.");
-        }
-        String content = Utils.readContentsAsString(file);
-        Blob blob = new Blob(content);
-        File[] blobFilePath = hashToPath(blob.hash(), false);
+        add(Collections.singletonList(fileName));
+    }
 
-        if (_head.getBlobs().containsKey(fileName)
-            && blob.hash().equals(_head.getBlobs().get(fileName))) {
-            _stage.rmStage().remove(fileName);
-            Utils.writeObject(_index, _stage);
-            return;
+    /** Stage the files named by PATHS.  Each is a file, a directory, whose
+     *  files below it are staged, or a glob pattern matched against the
+     *  working files; "-A" stages every working file, and the removal of
+     *  every tracked file that was deleted.  All files are hashed and
+     *  stored through the I/O executor, and the index is written once. */
+    public void add(List<String> paths) {
+        long start = System.nanoTime();
+        boolean all = false;
+        TreeSet<String> chosen = new TreeSet<>();
+        List<String> working = null;
+        for (String path : paths) {
+            if (path.equals("-A")) {
+                all = true;
+                continue;
+            }
+            File file = new File("./" + path);
+            if (file.isFile()) {
+                chosen.add(path);
+                continue;
+            }
+            if (working == null) {
+                working = _work.files();
+            }
+            List<String> matched = _work.matching(working, path);
+            if (matched.isEmpty() && !file.exists()) {
+                throw new GitletException("File does not exist.");
+            }
+            chosen.addAll(matched);
+        }
+        if (all) {
+            if (working == null) {
+                working = _work.files();
+            }
+            chosen.addAll(working);
+            stageDeletions();
+        }
+        Map<String, String> head = files(head());
+        List<String> order = new ArrayList<>(chosen);
+        Set<String> stored = ConcurrentHashMap.newKeySet();
+        List<FileStat> added = IoExecutor.map(order,
+            path -> storeFile(path, head, stored));
+        for (int k = 0; k < order.size(); k += 1) {
+            String path = order.get(k);
+            String blobHash = added.get(k).id();
+            stage().recordStat(path, added.get(k), blobHash);
+            if (blobHash.equals(head.get(path))) {
+                stage().unstageRemove(path);
+            } else {
+                stage().addToAddStage(path, blobHash);
+            }
+        }
+        saveStage(false);
+        if (Boolean.getBoolean("gitlet.stats")) {
+            double secs = (System.nanoTime() - start) / 1e9;
+            System.err.printf("add: %d files in %.3f s (%.0f files/sec)%n",
+                              order.size(), secs, order.size() / secs);
         }
+    }
 
-        if (!blobFilePath[0].exists()) {
-            blobFilePath[0].mkdir();
+    /** Return the stat data of working file PATH with the id of its
+     *  content, storing the content unless it is already in HEAD, the
+     *  head commit's files, or its id is in STORED, to which it is then
+     *  added.  Called from several threads at once. */
+    private FileStat storeFile(String path, Map<String, String> head,
+                               Set<String> stored) {
+        File file = new File("./" + path);
+        FileStat stat = FileStat.of(file);
+        if (stat == null) {
+            throw new GitletException("File does not exist.");
+        }
+        String known = stage().cachedId(path, stat);
+        if (known != null && (known.equals(head.get(path))
+                || known.equals(stage().addStage().get(path)))) {
+            return stat.withId(known);
         }
-        tryCreateFile(blobFilePath[1]);
+        if (stat.size() >= ObjectStore.STREAM_THRESHOLD) {
+            return stat.withId(_store.writeStream(file));
+        }
+        Blob blob = new Blob(Utils.readContents(file));
+        String blobHash = blob.hash();
+        if (!blobHash.equals(head.get(path)) && stored.add(blobHash)) {
+            String base = stage().addStage().containsKey(path)
+                    ? stage().addStage().get(path) : head.get(path);
+            _store.writeBlob(blob, base);
+        }
+        return stat.withId(blobHash);
+    }
 
-        Utils.writeObject(blobFilePath[1], blob);
-        _stage.addToAddStage(fileName, blob.hash());
-        Utils.writeObject(_index, _stage);
+    /** Stage the removal of every tracked file that no longer exists, and
+     *  unstage every staged file that no longer exists. */
+    private void stageDeletions() {
+        for (String path : new ArrayList<>(stage().addStage().keySet())) {
+            if (!new File("./" + path).exists()) {
+                stage().unstageAdd(path);
+            }
+        }
+        for (String path : files(head()).keySet()) {
+            if (!new File("./" + path).exists()
+                && !stage().rmStage().contains(path)) {
+                stage().addToRemoveStage(path);
+                stage().forgetStat(path);
+            }
+        }
     }
 
     public void commit(String msg, String par2) {
@@ -130,41 +258,27 @@ public class Repo {
             throw new GitletException("Please enter a commit message.");
         }
 
-        Commit newCommit = new Commit(msg, _head.hash());
-        newCommit.copyOver(_head);
-        if (!par2.equals("")) {
-            newCommit.setParent2(par2);
-        }
-
-        if (_index.length() == 0) {
+        if (stage().isEmpty()) {
             throw new GitletException("No changes added to the commit.");
         }
 
-        for (Map.Entry<String, String> item : _stage.addStage().entrySet()) {
-            if (!newCommit.getBlobs().containsKey(item.getKey())) {
-                newCommit.addBlob(item.getKey(), item.getValue());
-            } else {
-                newCommit.getBlobs().replace(item.getKey(), item.getValue());
-            }
+        TreeMap<String, String> changes = new TreeMap<>(stage().addStage());
+        for (String item : stage().rmStage()) {
+            changes.put(item, null);
         }
-
-        for (String item : _stage.rmStage()) {
-            newCommit.getBlobs().remove(item);
+        String tree = Tree.update(_store, _store.treeOf(head()), changes);
+        Commit newCommit = new Commit(msg, headId(), tree);
+        if (!par2.equals("")) {
+            newCommit.setParent2(par2);
         }
 
         String newCommitHash = newCommit.hash();
-        File[] newCommitPath = hashToPath(newCommitHash, true);
 
-        if (!newCommitPath[0].exists()) {
-            newCommitPath[0].mkdir();
-        }
-        tryCreateFile(newCommitPath[1]);
-
-        _stage.clearStage();
-        File currBranch = new File(Utils.readContentsAsString(_headFile));
-        Utils.writeContents(currBranch, newCommitHash);
-        Utils.writeContents(_index, "");
-        Utils.writeObject(newCommitPath[1], newCommit);
+        stage().clearStage();
+        File currBranch = new File(readRef(_headFile));
+        writeRef(currBranch, newCommitHash);
+        saveStage(true);
+        _store.writeCommit(newCommitHash, newCommit);
         _head = newCommit;
     }
 
@@ -175,130 +289,218 @@ public class Repo {
      */
     public void checkout(String input, boolean branch, boolean reset) {
         if (!branch) {
-            checkout(_head.hash(), input);
+            checkout(headId(), input);
         } else {
             File branchFile = Utils.join(_headsFolder, "/" + input);
-            if (!branchFile.exists()) {
+            if (!refExists(branchFile)) {
                 throw new GitletException("No such branch exists.");
             } else if (!reset
                     && branchFile.getPath()
-                    .equals(Utils.readContentsAsString(_headFile))) {
+                    .equals(readRef(_headFile))) {
                 throw new GitletException("No need to "
                         + "checkout the current branch.");
             }
-            String commitHash = Utils.readContentsAsString(branchFile);
-            Commit newCommit = hashToCommit(commitHash);
-            List<String> files = Utils.plainFilenamesIn("./");
-            for (String file : files) {
-                File realFile = new File("./" + file);
-                String fileHash = Utils
-                        .sha1(Utils.readContentsAsString(realFile));
-                if (!_head.getBlobs().containsKey(file)
-                        && newCommit.getBlobs().containsKey(file)
-                        && !fileHash.equals(newCommit.getBlobs().get(file))) {
-                    throw new GitletException("There is an "
-                            + "untracked file in the way; "
-                            + "delete it, or add and commit it first.");
-                }
-            }
+            switchBranch(branchFile, head());
+        }
+    }
 
-            for (String file : files) {
-                if (!newCommit.getBlobs().containsKey(file)) {
-                    File realFile = new File("./" + file);
-                    realFile.delete();
-                }
+    /** Make the branch whose ref is BRANCHFILE current, checking out its
+     *  commit over the working files, which are those of commit FROM. */
+    private void switchBranch(File branchFile, Commit from) {
+        String commitHash = readRef(branchFile);
+        Commit newCommit = hashToCommit(commitHash);
+        Map<String, String> target = files(newCommit);
+        TreeMap<String, String[]> changes = _store.diff(from, newCommit);
+        for (Map.Entry<String, String[]> change : changes.entrySet()) {
+            String path = change.getKey();
+            File file = new File("./" + path);
+            if (change.getValue()[0] == null && file.isFile()
+                    && _work.listed(path)
+                    && !Utils.sha1(Utils.readContents(file))
+                    .equals(target.get(path))) {
+                throw new GitletException("There is an "
+                        + "untracked file in the way; "
+                        + "delete it, or add and commit it first.");
             }
-
-            for (Map.Entry<String, String> entry
-                    : newCommit.getBlobs().entrySet()) {
-                File file = new File("./" + entry.getKey());
-                if (!file.exists()) {
-                    tryCreateFile(file);
-                }
-                String blobHash = newCommit.getBlobs().get(entry.getKey());
-                File blobFile = hashToPath(blobHash, false)[1];
-                Blob blob = Utils.readObject(blobFile, Blob.class);
-                Utils.writeContents(file, blob.content());
+        }
+        List<String> writes = new ArrayList<>();
+        for (Map.Entry<String, String[]> change : changes.entrySet()) {
+            if (change.getValue()[1] == null) {
+                deleteFile(change.getKey());
+            } else {
+                writes.add(change.getKey());
+            }
+        }
+        List<String> unchanged = new ArrayList<>();
+        for (String path : target.keySet()) {
+            if (!changes.containsKey(path)) {
+                unchanged.add(path);
             }
-            Utils.writeContents(_headFile, branchFile.getPath());
-            File headPath = new File(Utils.readContentsAsString(_headFile));
-            _head = hashToCommit(Utils.readContentsAsString(headPath));
-            _stage.clearStage();
-            Utils.writeContents(_index, "");
         }
+        List<String> current = workingIds(unchanged);
+        for (int k = 0; k < unchanged.size(); k += 1) {
+            String path = unchanged.get(k);
+            if (!target.get(path).equals(current.get(k))) {
+                writes.add(path);
+            }
+        }
+        List<FileStat> written = IoExecutor.map(writes, path -> {
+            File file = new File("./" + path);
+            if (!file.exists()) {
+                createFile(file, path);
+            }
+            _store.checkoutBlob(target.get(path), file);
+            return FileStat.of(file);
+        });
+        for (int k = 0; k < writes.size(); k += 1) {
+            stage().recordStat(writes.get(k), written.get(k),
+                              target.get(writes.get(k)));
+        }
+        writeRef(_headFile, branchFile.getPath());
+        File headPath = new File(readRef(_headFile));
+        _head = hashToCommit(readRef(headPath));
+        stage().clearStage();
+        saveStage(true);
     }
 
     public void checkout(String id, String fileName) {
         Commit commit = hashToCommit(id);
-        if (!commit.getBlobs().containsKey(fileName)) {
+        if (!files(commit).containsKey(fileName)) {
             throw new GitletException("File does not exist in that commit.");
         }
-        String blobHash = commit.getBlobs().get(fileName);
-        File blobFile = hashToPath(blobHash, false)[1];
-        Blob blob = Utils.readObject(blobFile, Blob.class);
+        String blobHash = files(commit).get(fileName);
         File filePath = new File("./" + fileName);
         if (!filePath.exists()) {
             tryCreateFile(filePath);
         }
-        Utils.writeContents(filePath, blob.content());
+        _store.checkoutBlob(blobHash, filePath);
+        stage().recordStat(fileName, FileStat.of(filePath), blobHash);
+        saveStage(false);
     }
 
     public void checkout() {
-        File headPath = new File(Utils.readContentsAsString(_headFile));
+        File headPath = new File(readRef(_headFile));
         checkout(headPath.getName(), true, false);
     }
 
     public void log() {
-        System.out.println(_head);
-        String startHash = _head.parent1();
-        Commit curr;
-        while (!startHash.equals("")) {
-            curr = Utils.readObject(Utils.join(_comFolder,
-                            startHash.substring(0, 2),
-                            startHash.substring(2)),
-                    Commit.class);
-            System.out.println(curr);
-            startHash = curr.parent1();
-        }
+        log(new LogQuery());
+    }
+
+    /** Print the commits selected by QUERY in a walk from the head, by
+     *  default following first parents.  Commits are read through
+     *  History, ahead of printing, and none past the last one printed
+     *  are read. */
+    public void log(LogQuery query) {
+        int order = query.order() == LogQuery.DEFAULT_ORDER
+            ? History.FIRST_PARENT : query.order();
+        print(new History(_store, order, _store.graph().find(headId()))
+              .select(query.since(), query.until(), query.limit())
+              .iterator());
+    }
+
+    /** Return the history from the head, in ORDER, one of the orders of
+     *  History, as a lazy stream of commits. */
+    public Stream<Commit> history(int order) {
+        return (order == History.GRAPH ? new History(_store, order)
+                : new History(_store, order, _store.graph().find(headId())))
+            .stream();
     }
 
     public void rm(String fileName) {
-        if (!_stage.addStage().containsKey(fileName)
-                && !_head.getBlobs().containsKey(fileName)) {
-            System.out.println("No reason to remove the file.");
+        if (!stage().addStage().containsKey(fileName)
+                && !files(head()).containsKey(fileName)) {
+            throw new GitletException("No reason to remove the file.");
         }
 
-        _stage.addStage().remove(fileName);
-        if (_head.getBlobs().containsKey(fileName)) {
-            _stage.addToRemoveStage(fileName);
-            File toRemove = new File("./" + fileName);
-            toRemove.delete();
+        stage().unstageAdd(fileName);
+        if (files(head()).containsKey(fileName)) {
+            stage().addToRemoveStage(fileName);
+            deleteFile(fileName);
         }
-        Utils.writeObject(_index, _stage);
+        saveStage(false);
     }
 
     public void gLog() {
-        File[] subs = _comFolder.listFiles();
-        for (File sub : subs) {
-            for (String fileName : Utils.plainFilenamesIn(sub)) {
-                String commitHash = sub.getName() + fileName;
-                Commit curr = hashToCommit(commitHash);
-                System.out.println(curr);
+        gLog(new LogQuery());
+    }
+
+    /** Print the commits selected by QUERY, taking everything but their
+     *  messages from the commit graph and those from the message index,
+     *  so that no commit objects are read.  By default, every commit is
+     *  printed in commit graph order, or if QUERY limits times or number,
+     *  those selected are found by binary search in the index of commits
+     *  by time and printed newest first.  In any other order, the walk
+     *  starts from every commit. */
+    public void gLog(LogQuery query) {
+        CommitGraph graph = _store.graph();
+        PrimitiveIterator.OfInt positions;
+        if (query.all()) {
+            positions = new History(_store, History.GRAPH).positions();
+        } else if (query.order() == LogQuery.DEFAULT_ORDER) {
+            positions = _store.times().newest(query.since(), query.until(),
+                                              query.limit())
+                .stream().mapToInt(Integer::intValue).iterator();
+        } else {
+            positions = new History(_store, query.order(),
+                                    IntStream.range(0, graph.size())
+                                    .toArray())
+                .select(query.since(), query.until(), query.limit())
+                .positions();
+        }
+        print(StreamSupport.intStream(Spliterators.spliteratorUnknownSize(
+            positions, Spliterator.ORDERED), false)
+              .mapToObj(this::describe).iterator());
+    }
+
+    /** Print each of ENTRIES on its own line, through a buffer that is
+     *  written out first after one entry and then whenever it holds
+     *  twice as much as last time, up to OUT_BUFFER characters.  Stops
+     *  early once standard output reports an error, as when it is a pipe
+     *  whose reader has exited. */
+    private static void print(Iterator<?> entries) {
+        StringBuilder out = new StringBuilder();
+        String newline = System.lineSeparator();
+        int size = 1;
+        while (entries.hasNext()) {
+            out.append(entries.next()).append(newline);
+            if (out.length() >= size) {
+                System.out.print(out);
+                size = Math.min(2 * out.length(), OUT_BUFFER);
+                out.setLength(0);
+                if (System.out.checkError()) {
+                    return;
+                }
             }
         }
+        System.out.print(out);
+        System.out.flush();
+    }
+
+    /** Return the log entry of the commit at position K of the commit
+     *  graph, taking everything but its message from the graph and that
+     *  from the message index, so that no commit object is read. */
+    private String describe(int k) {
+        CommitGraph graph = _store.graph();
+        int p1 = graph.parent1(k), p2 = graph.parent2(k);
+        return Commit.describe(graph.id(k),
+            p1 == CommitGraph.NONE ? "" : graph.id(p1),
+            p2 == CommitGraph.NONE ? "" : graph.id(p2),
+            Commit.stamp(graph.time(k)), _store.messages().message(k));
     }
 
     public ArrayList<String> find(String message) {
+        return find(message, MessageIndex.EXACT);
+    }
+
+    /** Return the ids of the commits whose messages match QUERY as a
+     *  query of kind KIND, as defined by MessageIndex, in commit graph
+     *  order. */
+    public ArrayList<String> find(String query, int kind) {
         ArrayList<String> toPrint = new ArrayList<String>();
-        File[] subs = _comFolder.listFiles();
-        for (File sub : subs) {
-            for (String fileName : Utils.plainFilenamesIn(sub)) {
-                String commitHash = sub.getName() + fileName;
-                Commit curr = hashToCommit(commitHash);
-                if (curr.msg().equals(message)) {
-                    toPrint.add(curr.hash());
-                }
-            }
+        CommitGraph graph = _store.graph();
+        for (int k : _store.messages().find(query, kind)) {
+            toPrint.add(graph.id(k));
         }
         if (toPrint.size() == 0) {
             throw new GitletException("Found no commit with that message.");
@@ -308,9 +510,9 @@ public class Repo {
 
     public void status() {
         System.out.println("=== Branches ===");
-        List<String> branches = Utils.plainFilenamesIn(_headsFolder);
+        List<String> branches = branchNames();
         Collections.sort(branches);
-        File active = new File(Utils.readContentsAsString(_headFile));
+        File active = new File(readRef(_headFile));
         for (String branch : branches) {
             if (branch.equals(active.getName())) {
                 System.out.println("*" + branch);
@@ -320,7 +522,7 @@ public class Repo {
         }
         System.out.println("\n=== Staged Files ===");
         List<String> addStage = new ArrayList<String>();
-        for (Map.Entry<String, String> entry : _stage.addStage().entrySet()) {
+        for (Map.Entry<String, String> entry : stage().addStage().entrySet()) {
             addStage.add(entry.getKey());
         }
         Collections.sort(addStage);
@@ -329,30 +531,48 @@ public class Repo {
         }
         System.out.println("\n=== Removed Files ===");
         List<String> rmStage = new ArrayList<String>();
-        rmStage.addAll(_stage.rmStage());
+        rmStage.addAll(stage().rmStage());
         Collections.sort(rmStage);
         for (String file : rmStage) {
             System.out.println(file);
         }
         ArrayList<String> modified = new ArrayList<String>();
         System.out.println("\n=== Modifications Not Staged For Commit ===");
-        for (Map.Entry<String, String> entry : _head.getBlobs().entrySet()) {
-            File curr = new File("./" + entry.getKey());
-            if (!curr.exists()) {
-                if (!rmStage.contains(curr.getName())
-                        || addStage.contains(curr.getName())) {
-                    modified.add(entry.getKey() + " (deleted)");
+        Monitor.Query query = Monitor.query(_mainDir, stage().monitorToken());
+        Set<String> changed = query == null ? null : query.changed();
+        Map<String, String> ids = new HashMap<>();
+        List<String> examine = new ArrayList<>();
+        for (String path : files(head()).keySet()) {
+            String known = changed == null || touched(changed, path) ? null
+                : stage().knownId(path);
+            if (known == null) {
+                examine.add(path);
+            } else {
+                ids.put(path, known);
+            }
+        }
+        List<String> found = workingIds(examine);
+        for (int k = 0; k < examine.size(); k += 1) {
+            ids.put(examine.get(k), found.get(k));
+        }
+        Set<String> checked = new HashSet<>();
+        for (Map.Entry<String, String> entry : files(head()).entrySet()) {
+            String path = entry.getKey();
+            String hash = ids.get(path);
+            if (hash == null) {
+                if (!rmStage.contains(path)
+                        || addStage.contains(path)) {
+                    modified.add(path + " (deleted)");
                 }
                 continue;
             }
-            String contents = Utils.readContentsAsString(curr);
-            if ((_head.getBlobs().containsKey(curr.getName())
-                    && !_head.getBlobs()
-                    .get(curr.getName()).equals(Utils.sha1("blob" + contents))
-                    && !addStage.contains(curr.getName()))
-                    || addStage.contains(curr.getName()) && !_stage.addStage()
-                    .get(curr.getName()).equals(Utils.sha1(contents))) {
-                modified.add(entry.getKey() + " (modified)");
+            checked.add(path);
+            if ((files(head()).containsKey(path)
+                    && !files(head()).get(path).equals(hash)
+                    && !addStage.contains(path))
+                    || addStage.contains(path) && !stage().addStage()
+                    .get(path).equals(hash)) {
+                modified.add(path + " (modified)");
             }
         }
         Collections.sort(modified);
@@ -362,84 +582,103 @@ public class Repo {
         for (String s : untracked) {
             System.out.println(s);
         }
+        if (query != null) {
+            stage().retainStats(checked);
+        }
+        stage().setMonitorToken(query == null ? null : query.token());
+        saveStage(false);
+    }
+
+    /** Return true iff PATH or a directory containing it is in CHANGED. */
+    private static boolean touched(Set<String> changed, String path) {
+        for (int slash = path.indexOf('/'); slash >= 0;
+             slash = path.indexOf('/', slash + 1)) {
+            if (changed.contains(path.substring(0, slash))) {
+                return true;
+            }
+        }
+        return changed.contains(path);
     }
 
     public void branch(String name) {
         File branchFile = Utils.join(_headsFolder, "/" + name);
-        if (branchFile.exists()) {
+        if (refExists(branchFile)) {
             throw new GitletException("A branch with "
                     + "that name already exists.");
         }
-        tryCreateFile(branchFile);
-        Utils.writeContents(branchFile, _head.hash());
+        writeRef(branchFile, headId());
     }
 
     public void rmBranch(String name) {
         File branchFile = Utils.join(_headsFolder, "/" + name);
-        String headPath = Utils.readContentsAsString(_headFile);
-        if (!branchFile.exists()) {
+        String headPath = readRef(_headFile);
+        if (!refExists(branchFile)) {
             throw new GitletException("A branch "
                     + "with that name does not exist.");
         } else if (branchFile.getPath().equals(headPath)) {
             throw new GitletException("Cannot remove the current branch.");
         }
-        branchFile.delete();
+        deleteRef(branchFile);
     }
 
     public void reset(String id) {
-        if (!hashToPath(id, true)[1].exists()) {
+        id = _store.resolve(id, ObjectStore.COMMIT);
+        if (id == null) {
             throw new GitletException("No commit with that id exists.");
         }
-        File branchFile = new File(Utils.readContentsAsString(_headFile));
-        Utils.writeContents(branchFile, id);
-        checkout(branchFile.getName(), true, true);
-
+        Commit from = head();
+        File branchFile = new File(readRef(_headFile));
+        writeRef(branchFile, id);
+        switchBranch(branchFile, from);
     }
 
     public void reset() {
-        File branchFile = new File(Utils.readContentsAsString(_headFile));
+        File branchFile = new File(readRef(_headFile));
         checkout(branchFile.getName(), true, true);
     }
 
     public void merge(String branch) {
         File bFile = Utils.join(_headsFolder, "/" + branch);
-        String headPath = Utils.readContentsAsString(_headFile);
+        String headPath = readRef(_headFile);
         String headBranch = new File(headPath).getName();
         initMergeCheck(bFile, headPath);
         List<String> untracked = getUntracked();
 
         Commit split = findSplit(bFile);
-        String bHash = Utils.readContentsAsString(bFile);
+        String bHash = readRef(bFile);
         Commit bHead = hashToCommit(bHash);
 
         if (mergeEndEarly(split, bFile, bHead)) {
             return;
         }
-        mergeSplit(untracked, split, bHead);
+        TreeMap<String, String[]> changes = mergeChanges(split, bHead);
+        mergeSplit(untracked, changes, bHead);
 
-        for (Map.Entry<String, String> blob : _head.getBlobs().entrySet()) {
-            String bContent = bHead.getBlobs().get(blob.getKey());
-            if (split.getBlobs().get(blob.getKey()) == null
+        for (Map.Entry<String, String[]> change : changes.entrySet()) {
+            String[] blobs = change.getValue();
+            String hContent = blobs[1], bContent = blobs[2];
+            if (blobs[0] == null && hContent != null
                     && !(bContent == null)
-                    && !bContent.equals(blob.getValue())) {
-                if (untracked.contains(blob.getKey())) {
+                    && !bContent.equals(hContent)) {
+                if (untracked.contains(change.getKey())) {
                     untrackedMerge();
                 }
-                conflictMerge(blob.getKey(), bContent, blob.getValue());
+                conflictMerge(change.getKey(), bContent, hContent);
             }
         }
 
-        for (Map.Entry<String, String> blob : bHead.getBlobs().entrySet()) {
-            String hContent = _head.getBlobs().get(blob.getKey());
-            if (split.getBlobs().get(blob.getKey()) == null) {
-                if (untracked.contains(blob.getKey())) {
+        for (Map.Entry<String, String[]> change : changes.entrySet()) {
+            String[] blobs = change.getValue();
+            String hContent = blobs[1], bContent = blobs[2];
+            if (blobs[0] == null && bContent != null) {
+                if (untracked.contains(change.getKey())) {
                     untrackedMerge();
                 }
                 if (hContent == null) {
-                    checkout(bHead.hash(), blob.getKey());
-                    add(blob.getKey());
-                } else if (!hContent.equals(blob.getValue())) {
-                    conflictMerge(blob.getKey(), hContent, blob.getValue());
+                    checkout(bHead.hash(), change.getKey());
+                    add(change.getKey());
+                } else if (!hContent.equals(bContent)) {
+                    conflictMerge(change.getKey(), hContent, bContent);
                 }
             }
         }
@@ -482,11 +721,11 @@ public class Repo {
         File rbPath = (File) _remotes.get(bName);
         rbPath = Utils.join(rbPath, "/" + rBranch);
 
-        Commit currCom = _head;
-        String toReset = _head.hash();
-        File[] rmCom = hashToPath(currCom.hash(), true);
-        String dir = rmCom[0].getPath().substring(9);
-        String fil = rmCom[1].getPath().substring(9);
+        Commit currCom = head();
+        String toReset = headId();
+        File rmCom = _store.loosePath(currCom.hash(), ObjectStore.COMMIT);
+        String dir = rmCom.getParentFile().getPath().substring(9);
+        String fil = rmCom.getPath().substring(9);
 
         if (!rbPath.exists()) {
             tryCreateFile(rbPath);
@@ -500,57 +739,231 @@ public class Repo {
                 tryCreateFile(rmComF);
                 Utils.writeObject(rmComF, currCom);
                 currCom = hashToCommit(currCom.parent1());
-                rmCom = hashToPath(currCom.hash(), true);
-                dir = rmCom[0].getPath().substring(9);
-                fil = rmCom[1].getPath().substring(9);
+                rmCom = _store.loosePath(currCom.hash(), ObjectStore.COMMIT);
+                dir = rmCom.getParentFile().getPath().substring(9);
+                fil = rmCom.getPath().substring(9);
                 rmComD = Utils.join(rbPath, dir);
                 rmComF = Utils.join(rbPath, fil);
             }
         }
     }
 
-    private File[] hashToPath(String hash, boolean commit) {
-        String subFolderName = "/" + hash.substring(0, 2);
-        File subFolder = commit ? Utils.join(_comFolder, subFolderName)
-                : Utils.join(_blobFolder, subFolderName);
-        String filePath = "nonexistent";
-        if (hash.length() < _hashLim) {
-            List<String> allFiles = Utils.plainFilenamesIn(subFolder);
-            for (String s : allFiles) {
-                if (s.contains(hash.substring(2))) {
-                    filePath = "/" + s;
-                    break;
+    private Commit hashToCommit(String hash) {
+        String id = _store.resolve(hash, ObjectStore.COMMIT);
+        if (id == null) {
+            throw Utils.error("No commit with that id exists.");
+        }
+        return _store.readCommit(id);
+    }
+
+    /** Return the files of COMMIT, mapped to their blob ids. */
+    private SortedMap<String, String> files(Commit commit) {
+        return _store.files(commit);
+    }
+
+    private Blob hashToBlob(String hash) {
+        return _store.readBlob(hash);
+    }
+
+    /** Return the object cache, for its hit and miss counters. */
+    ObjectCache cache() {
+        return _store.cache();
+    }
+
+    public int repack() {
+        return _store.repack();
+    }
+
+    /** Run a file-system monitor for this repository until asked to stop,
+     *  or, if STOP, ask a running monitor to stop. */
+    public void monitor(boolean stop) {
+        try {
+            if (stop) {
+                if (!Monitor.stop(_mainDir)) {
+                    throw Utils.error("No monitor is running.");
+                }
+            } else {
+                new Monitor(new File("."), _mainDir).run();
+            }
+        } catch (IOException | InterruptedException excp) {
+            throw Utils.error("Monitor failed: %s", excp.getMessage());
+        }
+    }
+
+    /** Defer writes of the index and refs until checkpoint if DEFER, and
+     *  otherwise make them as they happen, first saving any deferred. */
+    void defer(boolean defer) {
+        if (!defer) {
+            checkpoint();
+        }
+        _deferred = defer;
+    }
+
+    /** Write the index and refs changed since they were deferred. */
+    void checkpoint() {
+        for (Map.Entry<String, String> ref : _pendingRefs.entrySet()) {
+            File file = new File(ref.getKey());
+            if (ref.getValue() == null) {
+                file.delete();
+            } else {
+                if (!file.exists()) {
+                    tryCreateFile(file);
                 }
+                Utils.writeContents(file, ref.getValue());
             }
+        }
+        _pendingRefs.clear();
+        if (_stageRewrite) {
+            stage().write(_index);
+        } else if (_stage != null) {
+            stage().flush(_index);
+        }
+        _stageRewrite = false;
+    }
+
+    /** Save the stage to the index, in full if FULL, or else by
+     *  journaling its changes; or, if deferred, note that it must be. */
+    private void saveStage(boolean full) {
+        if (_deferred) {
+            _stageRewrite |= full;
+        } else if (full) {
+            stage().write(_index);
         } else {
-            filePath = "/" + hash.substring(2);
+            stage().flush(_index);
         }
-        File realFile = Utils.join(subFolder, filePath);
-        return new File[]{subFolder, realFile};
     }
 
-    private Commit hashToCommit(String hash) {
-        File commitPath = hashToPath(hash, true)[1];
-        if (!commitPath.exists()) {
-            throw Utils.error("No commit with that id exists.");
+    /** Return the contents of the ref (HEAD or a branch) in FILE. */
+    private String readRef(File file) {
+        if (_pendingRefs.containsKey(file.getPath())) {
+            return _pendingRefs.get(file.getPath());
+        }
+        return Utils.readContentsAsString(file);
+    }
+
+    /** Return true iff the ref in FILE exists. */
+    private boolean refExists(File file) {
+        if (_pendingRefs.containsKey(file.getPath())) {
+            return _pendingRefs.get(file.getPath()) != null;
+        }
+        return file.exists();
+    }
+
+    /** Set the ref in FILE to CONTENTS, creating it if needed. */
+    private void writeRef(File file, String contents) {
+        if (_deferred) {
+            _pendingRefs.put(file.getPath(), contents);
+            return;
+        }
+        if (!file.exists()) {
+            tryCreateFile(file);
         }
-        return Utils.readObject(commitPath, Commit.class);
+        Utils.writeContents(file, contents);
+    }
+
+    /** Delete the ref in FILE. */
+    private void deleteRef(File file) {
+        if (_deferred) {
+            _pendingRefs.put(file.getPath(), null);
+        } else {
+            file.delete();
+        }
+    }
+
+    /** Return the names of all branches. */
+    private List<String> branchNames() {
+        List<String> result = new ArrayList<>(
+            Utils.plainFilenamesIn(_headsFolder));
+        for (Map.Entry<String, String> ref : _pendingRefs.entrySet()) {
+            File file = new File(ref.getKey());
+            if (file.getParent().equals(_headsFolder.getPath())) {
+                result.remove(file.getName());
+                if (ref.getValue() != null) {
+                    result.add(file.getName());
+                }
+            }
+        }
+        return result;
     }
 
     private void tryCreateFile(File path) {
         try {
+            File parent = path.getParentFile();
+            if (parent != null) {
+                parent.mkdirs();
+            }
             path.createNewFile();
         } catch (Exception e) {
             System.out.println(e.getMessage());
         }
     }
 
+    /** Create the empty working file FILE, whose path is PATH, and any
+     *  directories it is to be in.  Unlike tryCreateFile, reports failure
+     *  by throwing a GitletException rather than printing, so that it is
+     *  safe on the I/O executor, which rethrows the error of the first
+     *  failing path. */
+    private static void createFile(File file, String path) {
+        File parent = file.getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        try {
+            file.createNewFile();
+        } catch (IOException excp) {
+            throw Utils.error("Cannot create %s.", path);
+        }
+    }
+
+    /** Delete the working file at PATH, and then any directories it was
+     *  in that are left empty. */
+    private void deleteFile(String path) {
+        File file = new File("./" + path);
+        file.delete();
+        stage().forgetStat(path);
+        for (int slash = path.lastIndexOf('/'); slash > 0;
+                slash = path.lastIndexOf('/', slash - 1)) {
+            File dir = new File("./" + path.substring(0, slash));
+            String[] left = dir.list();
+            if (left == null || left.length > 0 || !dir.delete()) {
+                break;
+            }
+        }
+    }
+
+    /** Return the blob ids of the contents of working files PATHS, in
+     *  order, with null for any that do not exist.  The files are examined
+     *  through the I/O executor, and a file is only read and hashed if the
+     *  stat data in the index do not show it to be unchanged.  The results
+     *  are recorded in the index. */
+    private List<String> workingIds(List<String> paths) {
+        Stage stage = stage();
+        List<FileStat> stats = IoExecutor.map(paths, path -> {
+            File file = new File("./" + path);
+            FileStat stat = FileStat.of(file);
+            if (stat == null) {
+                return null;
+            }
+            String id = stage.cachedId(path, stat);
+            return stat.withId(id != null ? id
+                               : Blob.hashOf(Utils.readContents(file)));
+        });
+        List<String> result = new ArrayList<>(paths.size());
+        for (int k = 0; k < paths.size(); k += 1) {
+            FileStat stat = stats.get(k);
+            if (stat != null) {
+                stage().recordStat(paths.get(k), stat, stat.id());
+            }
+            result.add(stat == null ? null : stat.id());
+        }
+        return result;
+    }
+
     private List<String> getUntracked() {
-        File cwd = new File("./");
-        List<String> preUntracked = Utils.plainFilenamesIn(cwd);
+        List<String> preUntracked = _work.files();
         List<String> untracked = new ArrayList<String>();
         for (String entry : preUntracked) {
-            if (!_head.getBlobs().containsKey(entry)) {
+            if (!files(head()).containsKey(entry)) {
                 untracked.add(entry);
             }
         }
@@ -558,13 +971,12 @@ public class Repo {
     }
 
     private List<String> getUntrackedStatus() {
-        File cwd = new File("./");
-        List<String> preUntracked = Utils.plainFilenamesIn(cwd);
+        List<String> preUntracked = _work.files();
         List<String> untracked = new ArrayList<String>();
         for (String entry : preUntracked) {
-            if (!_head.getBlobs().containsKey(entry)
-                    && !_stage.addStage().containsKey(entry)
-                    && !_stage.rmStage().contains(entry)) {
+            if (!files(head()).containsKey(entry)
+                    && !stage().addStage().containsKey(entry)
+                    && !stage().rmStage().contains(entry)) {
                 untracked.add(entry);
             }
         }
@@ -572,9 +984,9 @@ public class Repo {
     }
 
     private void initMergeCheck(File bFile, String headPath) {
-        if (_index.length() > 0) {
+        if (!stage().isEmpty()) {
             throw Utils.error("You have uncommitted changes");
-        } else if (!bFile.exists()) {
+        } else if (!refExists(bFile)) {
             throw Utils.error("A branch with that name does not exist.");
         } else if (headPath.equals(bFile.getPath())) {
             throw Utils.error("Cannot merge a branch with itself.");
@@ -584,71 +996,41 @@ public class Repo {
     private void conflictMerge(String fileName,
                                String blobCurr, String blobGiven) {
         File file = new File("./" + fileName);
-        String currContent, givContent;
+        byte[] currContent, givContent;
         if (blobCurr != null) {
-            File pathCurr = hashToPath(blobCurr, false)[1];
-            currContent = Utils.readObject(pathCurr, Blob.class).content();
+            currContent = hashToBlob(blobCurr).content();
         } else {
-            currContent = "";
+            currContent = new byte[0];
         }
 
         if (blobGiven != null) {
-            File pathGiven = hashToPath(blobGiven, false)[1];
-            givContent = Utils.readObject(pathGiven, Blob.class).content();
+            givContent = hashToBlob(blobGiven).content();
         } else {
-            givContent = "";
+            givContent = new byte[0];
         }
 
-        String newString = "<<<<<<< HEAD" + "\n"
-                + currContent + "=======" + "\n" + givContent
-                + ">>>>>>>" + "\n";
-        Utils.writeContents(file, newString);
+        Utils.writeContents(file, "<<<<<<< HEAD" + "\n", currContent,
+                "=======" + "\n", givContent, ">>>>>>>" + "\n");
         add(fileName);
         _conflict = true;
     }
 
     private void untrackedMerge() {
-        Utils.writeContents(_index, "");
+        stage().clearStage();
+        saveStage(false);
         throw Utils.error("There is an untracked file in the way; delete it"
                 + ", or add and commit it first.");
     }
 
     private Commit findSplit(File bFile) {
-        TreeMap<String, Integer> dist = new TreeMap<String, Integer>();
-        Commit curr = _head;
-        int counter = 0;
-        while (curr.parent1() != "") {
-            dist.put(curr.hash(), counter);
-            if (curr.parent2() != "") {
-                dist.put(curr.parent2(), counter + 1);
-            }
-            counter++;
-            curr = hashToCommit(curr.parent1());
-        }
-        dist.put(curr.hash(), counter);
-
-        String bHash = Utils.readContentsAsString(bFile);
-        curr = hashToCommit(bHash);
-        Commit bHead = curr;
-        Commit split = bHead;
-        int smallestDist = Integer.MAX_VALUE;
-        while (curr.hash() != "") {
-            if (dist.get(curr.hash()) != null
-                    && dist.get(curr.hash()) < smallestDist) {
-                split = curr;
-                smallestDist = dist.get(curr.hash());
-            }
-            if (dist.get(curr.parent2()) != null
-                    && dist.get(curr.parent2()) < smallestDist) {
-                split = hashToCommit(curr.parent2());
-                smallestDist = dist.get(curr.parent2());
-            }
-            if (curr.parent1().equals("")) {
-                break;
-            }
-            curr = hashToCommit(curr.parent1());
+        CommitGraph graph = _store.graph();
+        String bHash = readRef(bFile);
+        int split = MergeBase.find(graph, graph.find(headId()),
+                graph.find(bHash));
+        if (split == CommitGraph.NONE) {
+            throw Utils.error("Given branch has no common ancestor.");
         }
-        return split;
+        return hashToCommit(graph.id(split));
     }
 
     private boolean mergeEndEarly(Commit split, File bFile, Commit bHead) {
@@ -658,7 +1040,7 @@ public class Repo {
             return true;
         }
 
-        if (split.hash().equals(_head.hash())) {
+        if (split.hash().equals(headId())) {
             checkout(bFile.getName(), true, true);
             System.out.println("Current branch fast-forwarded.");
             return true;
@@ -666,42 +1048,76 @@ public class Repo {
         return false;
     }
 
+    /** Return the paths changed since SPLIT in the current head or in
+     *  BHEAD, each mapped to its blob ids in SPLIT, the current head and
+     *  BHEAD (null where absent).  Paths changed on neither side are left
+     *  out, and are never looked at since the trees they lie in are
+     *  identical. */
+    private TreeMap<String, String[]> mergeChanges(Commit split,
+                                                   Commit bHead) {
+        TreeMap<String, String[]> result = new TreeMap<>();
+        for (Map.Entry<String, String[]> change
+                : _store.diff(split, head()).entrySet()) {
+            String[] ids = change.getValue();
+            result.put(change.getKey(),
+                    new String[] { ids[0], ids[1], ids[0] });
+        }
+        for (Map.Entry<String, String[]> change
+                : _store.diff(split, bHead).entrySet()) {
+            String[] ids = change.getValue();
+            String[] known = result.get(change.getKey());
+            if (known == null) {
+                result.put(change.getKey(),
+                        new String[] { ids[0], ids[0], ids[1] });
+            } else {
+                known[2] = ids[1];
+            }
+        }
+        return result;
+    }
+
     private void mergeSplit(List<String> untracked,
-                            Commit split, Commit bHead) {
-        for (Map.Entry<String, String> blob : split.getBlobs().entrySet()) {
-            String bContent = bHead.getBlobs().get(blob.getKey());
-            String hContent = _head.getBlobs().get(blob.getKey());
+                            TreeMap<String, String[]> changes,
+                            Commit bHead) {
+        for (Map.Entry<String, String[]> change : changes.entrySet()) {
+            String file = change.getKey();
+            String sContent = change.getValue()[0];
+            if (sContent == null) {
+                continue;
+            }
+            String hContent = change.getValue()[1];
+            String bContent = change.getValue()[2];
 
             if (hContent != null && bContent != null) {
-                if (!hContent.equals(blob.getValue())
-                        && bContent.equals(blob.getValue())) {
+                if (!hContent.equals(sContent)
+                        && bContent.equals(sContent)) {
                     continue;
                 } else if (bContent.equals(hContent)) {
                     continue;
                 }
             } else if (hContent == null && bContent != null) {
-                if (bContent.equals(blob.getValue())) {
+                if (bContent.equals(sContent)) {
                     continue;
                 }
-            } else if (untracked.contains(blob.getKey())) {
+            } else if (untracked.contains(file)) {
                 untrackedMerge();
             }
 
             if (hContent != null && bContent != null) {
-                if (hContent.equals(blob.getValue())) {
-                    checkout(bHead.hash(), blob.getKey());
-                    add(blob.getKey());
+                if (hContent.equals(sContent)) {
+                    checkout(bHead.hash(), file);
+                    add(file);
                 } else {
-                    conflictMerge(blob.getKey(), hContent, bContent);
+                    conflictMerge(file, hContent, bContent);
                 }
             } else if (hContent != null) {
-                if (hContent.equals(blob.getValue())) {
-                    rm(blob.getKey());
+                if (hContent.equals(sContent)) {
+                    rm(file);
                 } else {
-                    conflictMerge(blob.getKey(), hContent, bContent);
+                    conflictMerge(file, hContent, bContent);
                 }
             } else if (bContent != null) {
-                conflictMerge(blob.getKey(), hContent, bContent);
+                conflictMerge(file, hContent, bContent);
             }
 
         }
@@ -0,0 +1,287 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/** A server that keeps a Repo, with its index, head commit and object
+ *  cache, in memory between commands, so that scripts issuing many
+ *  commands pay for neither JVM startup nor reading the repository each
+ *  time.  "gitlet serve" listens on the Unix domain socket server.sock in
+ *  the gitlet directory, and each later "gitlet" command in the same
+ *  directory forwards its arguments there and prints what comes back.
+ *
+ *  Commands are run one at a time.  If any file holding the repository's
+ *  refs, index or commit list, or the ignore file, changes other than
+ *  through the server, or a command fails, the Repo is discarded and the
+ *  next command starts from the files.
+ *
+ *  A request is the number of arguments followed by each, as by
+ *  DataOutput.writeUTF.  The reply is a series of chunks of output, each
+ *  a positive length followed by that many bytes, then 0 and the
+ *  command's status.
+ *  @author Austin Nicola Ardisaputra
+ */
+class Server {
+
+    /** Name of the socket in the gitlet directory. */
+    static final String SOCKET = "server.sock";
+
+    /** A server for the repository whose gitlet directory is MAINDIR. */
+    Server(File mainDir) {
+        _mainDir = mainDir;
+        _socket = new File(mainDir, SOCKET);
+    }
+
+    /** Serve commands until asked to stop by "gitlet serve stop". */
+    void run() {
+        if (_socket.exists()) {
+            if (connect(_socket) != null) {
+                throw Utils.error("A server is already running.");
+            }
+            _socket.delete();
+        }
+        try (ServerSocketChannel listener =
+                 ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            listener.bind(UnixDomainSocketAddress.of(_socket.toPath()));
+            while (!_stopping) {
+                try (SocketChannel client = listener.accept()) {
+                    handle(client);
+                } catch (IOException excp) {
+                    _repo = null;
+                }
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot serve: %s", excp.getMessage());
+        } finally {
+            _socket.delete();
+        }
+    }
+
+    /** Run the command sent by CLIENT and send back its output and
+     *  status. */
+    private void handle(SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(
+            new BufferedInputStream(Channels.newInputStream(client)));
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = in.readUTF();
+        }
+        DataOutputStream reply = new DataOutputStream(
+            new BufferedOutputStream(Channels.newOutputStream(client)));
+        PrintStream out = new PrintStream(new Chunks(reply), false,
+                                          StandardCharsets.UTF_8);
+        PrintStream stdout = System.out;
+        int status;
+        System.setOut(out);
+        try {
+            status = execute(args);
+        } catch (RuntimeException excp) {
+            System.out.println(excp);
+            status = 1;
+        } finally {
+            System.setOut(stdout);
+        }
+        out.flush();
+        if (status != 0) {
+            _repo = null;
+        }
+        _state = state();
+        reply.writeInt(0);
+        reply.writeInt(status);
+        reply.flush();
+    }
+
+    /** Run the command ARGS, returning its status. */
+    private int execute(String... args) {
+        if (args.length == 0) {
+            System.out.println("Please enter a command.");
+            return 1;
+        }
+        if (args[0].equals("serve")) {
+            if (args.length == 2 && args[1].equals("stop")) {
+                _stopping = true;
+                return 0;
+            }
+            System.out.println("A server is already running.");
+            return 1;
+        }
+        if (_repo == null || !state().equals(_state)) {
+            _repo = new Repo();
+        }
+        return Main.run(_repo, args);
+    }
+
+    /** Return a summary of the sizes, modification times and inodes of
+     *  the files a command's view of the repository depends on, which
+     *  changes whenever any of them does.  These include the ignore file
+     *  of the working tree, whose rules the Repo keeps once read. */
+    String state() {
+        StringBuilder result = new StringBuilder();
+        for (String name : STATE_FILES) {
+            describe(new File(_mainDir, name), result);
+        }
+        describe(new File(_mainDir.getAbsoluteFile().getParentFile(),
+                          WorkTree.IGNORE_FILE), result);
+        for (String dir : STATE_DIRS) {
+            File[] files = new File(_mainDir, dir).listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    describe(file, result);
+                }
+            }
+        }
+        return result.toString();
+    }
+
+    /** Append the name and stat data of FILE to RESULT. */
+    private static void describe(File file, StringBuilder result) {
+        FileStat stat = FileStat.of(file);
+        result.append(file.getName()).append(':');
+        if (stat != null) {
+            result.append(stat.size()).append(',').append(stat.mtime())
+                .append(',').append(stat.inode());
+        }
+        result.append(';');
+    }
+
+    /** Run the command ARGS on the server of the repository whose gitlet
+     *  directory is MAINDIR, if one is running, printing its output and
+     *  returning its status.  Returns null if there is no server.  If the
+     *  output cannot be printed, as when the program reading it has quit,
+     *  returns 1 at once, closing the connection so that the server's
+     *  next write fails and the command stops. */
+    static Integer forward(File mainDir, String... args) {
+        File socket = new File(mainDir, SOCKET);
+        if (!socket.exists()) {
+            return null;
+        }
+        SocketChannel server = connect(socket);
+        if (server == null) {
+            return null;
+        }
+        try (SocketChannel channel = server) {
+            DataOutputStream request = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(channel)));
+            request.writeInt(args.length);
+            for (String arg : args) {
+                request.writeUTF(arg);
+            }
+            request.flush();
+            DataInputStream reply = new DataInputStream(
+                new BufferedInputStream(Channels.newInputStream(channel)));
+            byte[] buf = new byte[Chunks.SIZE];
+            for (int len = reply.readInt(); len > 0; len = reply.readInt()) {
+                reply.readFully(buf, 0, len);
+                System.out.write(buf, 0, len);
+                if (System.out.checkError()) {
+                    return 1;
+                }
+            }
+            System.out.flush();
+            return reply.readInt();
+        } catch (IOException excp) {
+            throw Utils.error("Lost the server: %s", excp.getMessage());
+        }
+    }
+
+    /** Return a channel connected to SOCKET, or null if no server is
+     *  listening there. */
+    private static SocketChannel connect(File socket) {
+        try {
+            return SocketChannel.open(
+                UnixDomainSocketAddress.of(socket.toPath()));
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** An output stream sending what is written to it as reply chunks. */
+    private static class Chunks extends OutputStream {
+
+        /** Largest chunk sent. */
+        static final int SIZE = 8192;
+
+        /** A stream sending chunks to OUT. */
+        Chunks(DataOutputStream out) {
+            _out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (_len == _buf.length) {
+                flush();
+            }
+            _buf[_len++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (_len == _buf.length) {
+                    flush();
+                }
+                int n = Math.min(len, _buf.length - _len);
+                System.arraycopy(b, off, _buf, _len, n);
+                _len += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (_len > 0) {
+                _out.writeInt(_len);
+                _out.write(_buf, 0, _len);
+                _len = 0;
+            }
+            _out.flush();
+        }
+
+        /** Where chunks are sent. */
+        private final DataOutputStream _out;
+
+        /** Output not yet sent. */
+        private final byte[] _buf = new byte[SIZE];
+
+        /** Number of bytes in _buf. */
+        private int _len;
+    }
+
+    /** Files in the gitlet directory whose changes invalidate the Repo. */
+    private static final String[] STATE_FILES = {
+        "HEAD", "index", "index.journal", "commit-graph", "commit-ids",
+        "remotes",
+    };
+
+    /** Directories in the gitlet directory any of whose files' changes
+     *  invalidate the Repo. */
+    private static final String[] STATE_DIRS = { "heads", "pack" };
+
+    /** The gitlet directory. */
+    private final File _mainDir;
+
+    /** The socket file. */
+    private final File _socket;
+
+    /** The repository, or null if it must be reread. */
+    private Repo _repo;
+
+    /** The result of state() when the last command finished. */
+    private String _state;
+
+    /** True once asked to stop. */
+    private boolean _stopping;
+}
@@ -1,34 +1,481 @@
 package gitlet;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
 
 public class Stage implements Serializable {
 
+    /** Fixed so that stages serialized before the binary encoding was
+     *  introduced can still be read. */
+    private static final long serialVersionUID = -3615982834720351322L;
+
+    /** Leading bytes of an encoded stage. */
+    static final byte[] MAGIC = { 'G', 'S', 'T' };
+
+    /** Current version of the stage encoding, which includes the stat
+     *  data of working files, a monitor token and a generation. */
+    static final int VERSION = 4;
+
+    /** Version of the stage encoding with stat data and a monitor token
+     *  but no generation. */
+    static final int TOKEN_VERSION = 3;
+
+    /** Version of the stage encoding with stat data but no token. */
+    static final int STAT_VERSION = 2;
+
+    /** Version of the stage encoding without stat data. */
+    static final int STAGE_VERSION = 1;
+
+    /** Leading bytes of the index journal, which are followed by the
+     *  version and the generation of the index it applies to, and then
+     *  by records.  Each record is a two-byte length, that many bytes
+     *  holding an operation and its operands, and a CRC-32 of them. */
+    static final byte[] JOURNAL_MAGIC = { 'G', 'S', 'J' };
+
+    /** Current version of the journal encoding. */
+    static final int JOURNAL_VERSION = 1;
+
+    /** Size in bytes past which the journal is folded into the index. */
+    static final long JOURNAL_LIMIT = 64 * 1024;
+
+    /** Journal operations: stage a path for addition, stage one for
+     *  removal, unstage one from either, clear both, record a path's
+     *  stat data, forget them, and end the records appended by one
+     *  flush, giving the journal's modification time once they were
+     *  written. */
+    private static final int ADD = 1, RM = 2, UNADD = 3, UNRM = 4,
+        CLEAR = 5, STAT = 6, UNSTAT = 7, MARK = 8;
+
     /** Staged for removal. */
     private ArrayList<String> _rmStage = new ArrayList<String>();
 
     /** Staged for addition. */
     private TreeMap<String, String> _addStage = new TreeMap<String, String>();
 
+    /** Stat data of working files, by path.  Transient, like _written,
+     *  so that the serialized form of older stages is unchanged. */
+    private transient TreeMap<String, FileStat> _stats;
+
+    /** Modification time of the index file when it was last read or
+     *  written, in nanoseconds, or Long.MIN_VALUE if unknown. */
+    private transient long _written = Long.MIN_VALUE;
+
+    /** Random number identifying the last full write of the index, to
+     *  which the journal applies; 0 for indexes without one. */
+    private transient long _generation;
+
+    /** Journal records of changes not yet written. */
+    private transient ByteArrayOutputStream _pending;
+
+    /** True iff changes were made that the journal cannot record, so
+     *  that the index must be written in full. */
+    private transient boolean _rewrite;
+
+    /** Monitor token as of which the stat data were last brought up to
+     *  date, or null. */
+    private transient String _monitorToken;
+
+    /** Return the files staged for removal.  Changes must be made
+     *  through this stage's methods, so that they are journaled. */
     public ArrayList<String> rmStage() {
         return _rmStage;
     }
 
+    /** Return the files staged for addition, with their blob ids.
+     *  Changes must be made through this stage's methods, so that they
+     *  are journaled. */
     public TreeMap<String, String> addStage() {
         return _addStage;
     }
 
     public void addToAddStage(String fileName, String blob) {
         _addStage.put(fileName, blob);
+        log(new Codec.Writer().varint(ADD).string(fileName).id(blob));
     }
 
     public void addToRemoveStage(String fileName) {
         _rmStage.add(fileName);
+        log(new Codec.Writer().varint(RM).string(fileName));
+    }
+
+    /** Unstage FILENAME for addition. */
+    void unstageAdd(String fileName) {
+        if (_addStage.remove(fileName) != null) {
+            log(new Codec.Writer().varint(UNADD).string(fileName));
+        }
+    }
+
+    /** Unstage FILENAME for removal. */
+    void unstageRemove(String fileName) {
+        if (_rmStage.remove(fileName)) {
+            log(new Codec.Writer().varint(UNRM).string(fileName));
+        }
     }
 
     public void clearStage() {
         _addStage.clear(); _rmStage.clear();
+        log(new Codec.Writer().varint(CLEAR));
+    }
+
+    /** Return true iff nothing is staged for addition or removal. */
+    boolean isEmpty() {
+        return _addStage.isEmpty() && _rmStage.isEmpty();
+    }
+
+    /** Return the blob id of the working file PATH if the file is known
+     *  not to have changed since it was hashed, judging by its current
+     *  stat data CURRENT; otherwise return null.  Stat data recorded no
+     *  earlier than the index was written are not trusted: the file may
+     *  have changed again within the same timestamp tick without its
+     *  modification time moving. */
+    String cachedId(String path, FileStat current) {
+        FileStat known = stats().get(path);
+        if (known == null || !known.sameStat(current)
+            || known.mtime() >= _written) {
+            return null;
+        }
+        return known.id();
+    }
+
+    /** Remember that the working file PATH, whose stat data were STAT
+     *  when it was read, has blob id ID.  Does nothing if STAT is null. */
+    void recordStat(String path, FileStat stat, String id) {
+        if (stat != null) {
+            stats().put(path, stat.withId(id));
+            log(new Codec.Writer().varint(STAT).string(path).id(id)
+                .int64(stat.size()).int64(stat.mtime())
+                .int64(stat.inode()));
+        }
+    }
+
+    /** Forget the stat data of PATH. */
+    void forgetStat(String path) {
+        if (stats().remove(path) != null) {
+            log(new Codec.Writer().varint(UNSTAT).string(path));
+        }
+    }
+
+    /** Return the blob id recorded for PATH without examining the file,
+     *  or null if there is none or it might be racily clean.  Only for
+     *  paths a monitor reports unchanged since monitorToken(). */
+    String knownId(String path) {
+        FileStat known = stats().get(path);
+        return known == null || known.mtime() >= _written ? null
+            : known.id();
+    }
+
+    /** Return the monitor token as of which the stat data are current,
+     *  or null. */
+    String monitorToken() {
+        return _monitorToken;
+    }
+
+    /** Record that the stat data are current as of monitor token TOKEN,
+     *  which may be null. */
+    void setMonitorToken(String token) {
+        if (!Objects.equals(token, _monitorToken)) {
+            _monitorToken = token;
+            _rewrite = true;
+        }
+    }
+
+    /** Discard the stat data of all paths other than PATHS. */
+    void retainStats(Set<String> paths) {
+        if (stats().keySet().retainAll(paths)) {
+            _rewrite = true;
+        }
+    }
+
+    /** Return the stat data by path, creating the map if needed. */
+    private synchronized TreeMap<String, FileStat> stats() {
+        if (_stats == null) {
+            _stats = new TreeMap<>();
+        }
+        return _stats;
+    }
+
+    /** Return the binary encoding of this stage: the number of files
+     *  staged for addition followed by each path and blob id, in path
+     *  order, then the number of files staged for removal and their
+     *  paths, then the number of stat entries followed by each path,
+     *  blob id, size, modification time and inode, then the monitor
+     *  token (empty if none), and then the generation. */
+    byte[] encode() {
+        Codec.Writer out = new Codec.Writer(MAGIC, VERSION);
+        out.varint(_addStage.size());
+        for (Map.Entry<String, String> entry : _addStage.entrySet()) {
+            out.string(entry.getKey()).id(entry.getValue());
+        }
+        out.varint(_rmStage.size());
+        for (String path : _rmStage) {
+            out.string(path);
+        }
+        out.varint(stats().size());
+        for (Map.Entry<String, FileStat> entry : stats().entrySet()) {
+            FileStat stat = entry.getValue();
+            out.string(entry.getKey()).id(stat.id()).int64(stat.size())
+                .int64(stat.mtime()).int64(stat.inode());
+        }
+        out.string(_monitorToken == null ? "" : _monitorToken);
+        out.int64(_generation);
+        return out.toByteArray();
+    }
+
+    /** Return the stage stored in index FILE, which may be empty, encoded,
+     *  or (for repositories written by older versions) serialized, with
+     *  the changes in its journal applied.  Stat data are kept only if
+     *  they were recorded before the file holding them was written. */
+    static Stage read(File file) {
+        byte[] data = Utils.readContents(file);
+        Stage result;
+        if (data.length == 0) {
+            result = new Stage();
+        } else if (!Codec.hasMagic(data, MAGIC)) {
+            result = Utils.deserialize(data, Stage.class);
+        } else {
+            result = decode(data);
+        }
+        result._written = modified(file);
+        result.stats().values().removeIf(stat ->
+            stat.mtime() >= result._written);
+        result.replay(journalFile(file));
+        return result;
+    }
+
+    /** Return the stage encoded in DATA by encode.  Throws a
+     *  GitletException if DATA is cut short. */
+    static Stage decode(byte[] data) {
+        Codec.Reader in = new Codec.Reader(data, MAGIC);
+        if (in.version() < STAGE_VERSION || in.version() > VERSION) {
+            throw Utils.error("Unsupported index version %d.", in.version());
+        }
+        Stage result = new Stage();
+        try {
+            for (int n = in.varint(); n > 0; n -= 1) {
+                String path = in.string();
+                result._addStage.put(path, in.id());
+            }
+            for (int n = in.varint(); n > 0; n -= 1) {
+                result._rmStage.add(in.string());
+            }
+            if (in.version() >= STAT_VERSION) {
+                for (int n = in.varint(); n > 0; n -= 1) {
+                    String path = in.string();
+                    String id = in.id();
+                    long size = in.int64(), mtime = in.int64();
+                    long inode = in.int64();
+                    result.stats().put(path,
+                                       new FileStat(size, mtime, inode, id));
+                }
+            }
+            if (in.version() >= TOKEN_VERSION) {
+                String token = in.string();
+                result._monitorToken = token.isEmpty() ? null : token;
+            }
+            if (in.version() >= VERSION) {
+                result._generation = in.int64();
+            }
+        } catch (IndexOutOfBoundsException excp) {
+            throw Utils.error("Corrupt index.");
+        }
+        return result;
+    }
+
+    /** Write this stage to index FILE in full, under a new generation,
+     *  and delete the journal, whose changes it includes. */
+    void write(File file) {
+        long generation;
+        do {
+            generation = ThreadLocalRandom.current().nextLong();
+        } while (generation == 0);
+        _generation = generation;
+        Utils.writeContents(file, encode());
+        journalFile(file).delete();
+        _written = modified(file);
+        _pending = null;
+        _rewrite = false;
+    }
+
+    /** Save the changes made since index FILE was last read or written.
+     *  They are appended to the journal, followed by a MARK record of the
+     *  time they were written, unless they cannot be journaled or the
+     *  journal would grow past JOURNAL_LIMIT bytes, in which case the
+     *  index is written in full. */
+    void flush(File file) {
+        if (!_rewrite && (_pending == null || _pending.size() == 0)) {
+            return;
+        }
+        File journal = journalFile(file);
+        if (_rewrite || journal.length() + _pending.size() > JOURNAL_LIMIT) {
+            write(file);
+            return;
+        }
+        try (FileOutputStream out = new FileOutputStream(journal, true)) {
+            if (journal.length() == 0) {
+                out.write(new Codec.Writer(JOURNAL_MAGIC, JOURNAL_VERSION)
+                          .int64(_generation).toByteArray());
+            }
+            _pending.writeTo(out);
+            out.write(frame(new Codec.Writer().varint(MARK)
+                            .int64(modified(journal))));
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write %s.", journal.getName());
+        }
+        _written = modified(journal);
+        _pending = null;
+    }
+
+    /** Add the change recorded in REC to the journal records pending. */
+    private void log(Codec.Writer rec) {
+        if (_pending == null) {
+            _pending = new ByteArrayOutputStream();
+        }
+        _pending.writeBytes(frame(rec));
+    }
+
+    /** Return the journal record holding REC: its length, its bytes and
+     *  their CRC-32. */
+    private static byte[] frame(Codec.Writer rec) {
+        byte[] payload = rec.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteArrayOutputStream result =
+            new ByteArrayOutputStream(payload.length + 6);
+        result.write(payload.length >>> 8);
+        result.write(payload.length);
+        result.write(payload, 0, payload.length);
+        long sum = crc.getValue();
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            result.write((int) (sum >>> shift));
+        }
+        return result.toByteArray();
+    }
+
+    /** Apply the changes recorded in JOURNAL, if it belongs to this
+     *  stage's generation, and delete it otherwise.  A record cut short
+     *  or damaged by a crash ends the journal, which is truncated there
+     *  so that later records are appended after the last good one.  Stat
+     *  data are held back until the MARK ending their flush, and kept
+     *  only if recorded before the time it gives, when the file holding
+     *  them was written; later appends do not make them trusted. */
+    private void replay(File journal) {
+        if (!journal.isFile()) {
+            return;
+        }
+        byte[] data = Utils.readContents(journal);
+        int header = JOURNAL_MAGIC.length + 1 + 8;
+        if (data.length < header || !Codec.hasMagic(data, JOURNAL_MAGIC)
+            || data[JOURNAL_MAGIC.length] != JOURNAL_VERSION
+            || new Codec.Reader(data, JOURNAL_MAGIC).int64() != _generation) {
+            journal.delete();
+            return;
+        }
+        long journaled = modified(journal);
+        TreeMap<String, FileStat> unmarked = new TreeMap<>();
+        int pos = header;
+        while (pos + 2 <= data.length) {
+            int len = (data[pos] & 0xff) << 8 | (data[pos + 1] & 0xff);
+            int end = pos + 2 + len;
+            if (end + 4 > data.length) {
+                break;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data, pos + 2, len);
+            long sum = 0;
+            for (int k = end; k < end + 4; k += 1) {
+                sum = (sum << 8) | (data[k] & 0xff);
+            }
+            if (sum != crc.getValue()) {
+                break;
+            }
+            apply(new Codec.Reader(data, pos + 2), unmarked);
+            pos = end + 4;
+        }
+        if (pos < data.length) {
+            try (FileChannel ch = FileChannel.open(journal.toPath(),
+                     StandardOpenOption.WRITE)) {
+                ch.truncate(pos);
+            } catch (IOException excp) {
+                throw Utils.error("Cannot repair %s.", journal.getName());
+            }
+        }
+        _written = Math.max(_written, journaled);
+    }
+
+    /** Apply the journal record read by IN.  Stat data are put in
+     *  UNMARKED, by path, until the next MARK record, which keeps those
+     *  recorded before its time and drops the rest as not trusted. */
+    private void apply(Codec.Reader in, TreeMap<String, FileStat> unmarked) {
+        int op = in.varint();
+        switch (op) {
+        case ADD:
+            String path = in.string();
+            _addStage.put(path, in.id());
+            break;
+        case RM:
+            _rmStage.add(in.string());
+            break;
+        case UNADD:
+            _addStage.remove(in.string());
+            break;
+        case UNRM:
+            _rmStage.remove(in.string());
+            break;
+        case CLEAR:
+            _addStage.clear();
+            _rmStage.clear();
+            break;
+        case STAT:
+            path = in.string();
+            String id = in.id();
+            long size = in.int64(), mtime = in.int64(), inode = in.int64();
+            stats().remove(path);
+            unmarked.put(path, new FileStat(size, mtime, inode, id));
+            break;
+        case UNSTAT:
+            path = in.string();
+            stats().remove(path);
+            unmarked.remove(path);
+            break;
+        case MARK:
+            long flushed = in.int64();
+            for (Map.Entry<String, FileStat> entry : unmarked.entrySet()) {
+                if (entry.getValue().mtime() < flushed) {
+                    stats().put(entry.getKey(), entry.getValue());
+                }
+            }
+            unmarked.clear();
+            break;
+        default:
+            throw Utils.error("Unknown index journal record %d.", op);
+        }
+    }
+
+    /** Return the journal of index FILE. */
+    static File journalFile(File file) {
+        return new File(file.getParentFile(), file.getName() + ".journal");
+    }
+
+    /** Return the modification time of FILE in nanoseconds, or
+     *  Long.MIN_VALUE if it cannot be read. */
+    private static long modified(File file) {
+        try {
+            return FileStat.nanos(Files.getLastModifiedTime(file.toPath()));
+        } catch (IOException excp) {
+            return Long.MIN_VALUE;
+        }
     }
 }
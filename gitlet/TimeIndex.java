@@ -0,0 +1,211 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** The positions of all commits in the commit graph, sorted by commit
+ *  time (and by position among commits made at the same time), so that
+ *  the commits made in any period are found by binary search.  The file
+ *  holds a header giving the number of positions and the id of the
+ *  commit at the last position indexed, and then the positions, four
+ *  bytes each.  Positions 0 to the count less one are always indexed.
+ *
+ *  A commit newer than all indexed ones, the usual case, is appended and
+ *  the header then updated.  Otherwise, or if the file lags behind the
+ *  graph, it is rewritten when next loaded.  If the id in the header does
+ *  not match the graph, which was then rebuilt, the whole index is.
+ *  @author Austin Nicola Ardisaputra
+ */
+class TimeIndex {
+
+    /** Magic number at the start of a time index file. */
+    static final int MAGIC = 0x47544958;
+
+    /** Current format version. */
+    static final int VERSION = 1;
+
+    /** Size of the header: magic, version, count and an id. */
+    private static final int HEADER = 12 + PackFile.ID_BYTES;
+
+    /** An index stored in FILE of the commits in GRAPH. */
+    TimeIndex(File file, CommitGraph graph) {
+        _file = file;
+        _graph = graph;
+    }
+
+    /** Record that a commit was added to the graph at position K.  If it
+     *  cannot simply be appended, it is left for load to add. */
+    void add(int k) {
+        _map = null;
+        try (RandomAccessFile out = new RandomAccessFile(_file, "rw")) {
+            if (out.length() < HEADER || out.readInt() != MAGIC
+                || out.readInt() != VERSION || out.readInt() != k
+                || out.length() != HEADER + 4L * k) {
+                return;
+            }
+            if (k > 0) {
+                out.seek(out.length() - 4);
+                if (_graph.time(out.readInt()) > _graph.time(k)) {
+                    return;
+                }
+            }
+            out.seek(HEADER + 4L * k);
+            out.writeInt(k);
+            writeHeader(out, k + 1);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot update %s.", _file.getName());
+        }
+    }
+
+    /** Return the graph positions of the newest LIMIT commits made from
+     *  SINCE to UNTIL, in milliseconds since the epoch, newest first. */
+    List<Integer> newest(long since, long until, int limit) {
+        load();
+        List<Integer> result = new ArrayList<>();
+        int lo = lowerBound(since);
+        for (int i = lowerBound(until == Long.MAX_VALUE ? until : until + 1);
+             i > lo && result.size() < limit; i -= 1) {
+            result.add(position(i - 1));
+        }
+        return result;
+    }
+
+    /** Return the index in sorted order of the first commit made no
+     *  earlier than TIME. */
+    private int lowerBound(long time) {
+        int lo = 0, hi = _count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (_graph.time(position(mid)) < time) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Return the position of the Ith oldest commit. */
+    private int position(int i) {
+        return _map.getInt(HEADER + 4 * i);
+    }
+
+    /** Map the index, first rewriting it if it is missing, damaged, or
+     *  behind the graph. */
+    private void load() {
+        if (_map != null) {
+            return;
+        }
+        int size = _graph.size();
+        _count = 0;
+        if (_file.isFile() && _file.length() >= HEADER) {
+            map();
+            _count = _map.getInt(8);
+            byte[] id = new byte[PackFile.ID_BYTES];
+            _map.get(12, id);
+            if (_map.getInt(0) != MAGIC || _map.getInt(4) != VERSION
+                || _count > size || _file.length() != HEADER + 4L * _count
+                || (_count > 0
+                    && !Utils.bytesToHex(id).equals(_graph.id(_count - 1)))) {
+                _count = 0;
+            }
+        }
+        if (_count < size || !_file.isFile()) {
+            rewrite(size);
+        }
+    }
+
+    /** Replace the index file with one of the first SIZE commits of the
+     *  graph, keeping the part of the current order that is valid. */
+    private void rewrite(int size) {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < _count; i += 1) {
+            order[i] = position(i);
+        }
+        for (int k = _count; k < size; k += 1) {
+            order[k] = k;
+        }
+        Arrays.sort(order, _count, size, this::compare);
+        if (_count > 0) {
+            Integer[] old = Arrays.copyOf(order, _count);
+            Integer[] added = Arrays.copyOfRange(order, _count, size);
+            for (int i = 0, a = 0, b = 0; i < size; i += 1) {
+                order[i] = b == added.length
+                    || (a < old.length && compare(old[a], added[b]) <= 0)
+                    ? old[a++] : added[b++];
+            }
+        }
+        File tmp = new File(_file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(Files.newOutputStream(
+                     tmp.toPath())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(size);
+            out.write(size == 0 ? new byte[PackFile.ID_BYTES]
+                      : Utils.hexToBytes(_graph.id(size - 1)));
+            for (int k : order) {
+                out.writeInt(k);
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write %s.", _file.getName());
+        }
+        try {
+            Files.move(tmp.toPath(), _file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write %s.", _file.getName());
+        }
+        _count = size;
+        map();
+    }
+
+    /** Compare the commits at positions A and B by time, then position. */
+    private int compare(int a, int b) {
+        int c = Long.compare(_graph.time(a), _graph.time(b));
+        return c != 0 ? c : Integer.compare(a, b);
+    }
+
+    /** Write to OUT the header of an index of COUNT positions whose last
+     *  indexed commit is at position COUNT - 1. */
+    private void writeHeader(RandomAccessFile out, int count)
+        throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(HEADER);
+        head.putInt(MAGIC).putInt(VERSION).putInt(count)
+            .put(Utils.hexToBytes(_graph.id(count - 1)));
+        out.seek(0);
+        out.write(head.array());
+    }
+
+    /** Map the whole index file. */
+    private void map() {
+        try (FileChannel ch = FileChannel.open(_file.toPath())) {
+            _map = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read %s.", _file.getName());
+        }
+    }
+
+    /** The index file. */
+    private final File _file;
+
+    /** The commit graph whose commits are indexed. */
+    private final CommitGraph _graph;
+
+    /** The mapped index file, or null if it must be loaded again. */
+    private MappedByteBuffer _map;
+
+    /** Number of positions in the index. */
+    private int _count;
+}
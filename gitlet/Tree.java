@@ -0,0 +1,180 @@
+package gitlet;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/** The contents of one directory of a commit: a sorted map from names to
+ *  ids.  Names of subdirectories end in "/" and map to the ids of their
+ *  own trees; other names map to blob ids.  A tree's id is computed from
+ *  its encoding, so directories that did not change between two commits
+ *  share one tree object, and comparing two trees can skip any pair of
+ *  subdirectories with equal ids.
+ *  @author Austin Nicola Ardisaputra
+ */
+class Tree {
+
+    /** Leading bytes of an encoded tree. */
+    static final byte[] MAGIC = { 'G', 'T', 'R' };
+
+    /** Current version of the tree encoding. */
+    static final int VERSION = 1;
+
+    /** The empty tree. */
+    static final Tree EMPTY = new Tree(new TreeMap<>());
+
+    /** Prefix hashed before the encoding to form a tree's id. */
+    private static final String HASH_PREFIX = "tree";
+
+    /** A tree holding ENTRIES, which must not be changed afterwards. */
+    Tree(TreeMap<String, String> entries) {
+        _entries = entries;
+    }
+
+    /** Return this tree's entries, in name order. */
+    SortedMap<String, String> entries() {
+        return Collections.unmodifiableSortedMap(_entries);
+    }
+
+    /** Return the number of entries in this tree. */
+    int size() {
+        return _entries.size();
+    }
+
+    /** Return the id of this tree. */
+    String hash() {
+        if (_id == null) {
+            _id = Utils.sha1(HASH_PREFIX, encode());
+        }
+        return _id;
+    }
+
+    /** Return the binary encoding of this tree: the number of entries
+     *  followed by each name and 20-byte id, in name order. */
+    byte[] encode() {
+        Codec.Writer out = new Codec.Writer(MAGIC, VERSION);
+        out.varint(_entries.size());
+        for (Map.Entry<String, String> entry : _entries.entrySet()) {
+            out.string(entry.getKey()).id(entry.getValue());
+        }
+        return out.toByteArray();
+    }
+
+    /** Return the tree encoded in DATA by encode. */
+    static Tree decode(byte[] data) {
+        Codec.Reader in = new Codec.Reader(data, MAGIC);
+        if (in.version() != VERSION) {
+            throw Utils.error("Unsupported tree version %d.", in.version());
+        }
+        TreeMap<String, String> entries = new TreeMap<>();
+        for (int n = in.varint(); n > 0; n -= 1) {
+            String name = in.string();
+            entries.put(name, in.id());
+        }
+        return new Tree(entries);
+    }
+
+    /** Return the id of the tree that results from applying CHANGES to
+     *  tree ID in STORE, writing any new trees to STORE.  CHANGES maps
+     *  slash-separated paths to their new blob ids, or to null for paths
+     *  to remove.  Only the trees of directories holding a changed path
+     *  are read and rewritten; all others keep their ids.  Directories
+     *  left empty are removed. */
+    static String update(ObjectStore store, String id,
+                         SortedMap<String, String> changes) {
+        if (changes.isEmpty()) {
+            return id;
+        }
+        TreeMap<String, String> entries =
+            new TreeMap<>(store.readTree(id)._entries);
+        TreeMap<String, TreeMap<String, String>> subdirs = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash >= 0) {
+                subdirs.computeIfAbsent(path.substring(0, slash + 1),
+                                        k -> new TreeMap<>())
+                    .put(path.substring(slash + 1), change.getValue());
+            } else if (change.getValue() == null) {
+                entries.remove(path);
+            } else {
+                entries.put(path, change.getValue());
+            }
+        }
+        for (Map.Entry<String, TreeMap<String, String>> dir
+                 : subdirs.entrySet()) {
+            String old = entries.getOrDefault(dir.getKey(), EMPTY.hash());
+            String updated = update(store, old, dir.getValue());
+            if (updated.equals(EMPTY.hash())) {
+                entries.remove(dir.getKey());
+            } else {
+                entries.put(dir.getKey(), updated);
+            }
+        }
+        return store.writeTree(new Tree(entries));
+    }
+
+    /** Add to FILES every path below tree ID in STORE, preceded by PREFIX,
+     *  mapped to its blob id. */
+    static void flatten(ObjectStore store, String id, String prefix,
+                        Map<String, String> files) {
+        for (Map.Entry<String, String> entry
+                 : store.readTree(id)._entries.entrySet()) {
+            String name = entry.getKey();
+            if (name.endsWith("/")) {
+                flatten(store, entry.getValue(), prefix + name, files);
+            } else {
+                files.put(prefix + name, entry.getValue());
+            }
+        }
+    }
+
+    /** Add to CHANGES every path, preceded by PREFIX, whose blob differs
+     *  between trees A and B in STORE, mapped to its blob ids in A and B
+     *  (null where the path is absent).  Subtrees with equal ids are not
+     *  read. */
+    static void diff(ObjectStore store, String a, String b, String prefix,
+                     Map<String, String[]> changes) {
+        if (a.equals(b)) {
+            return;
+        }
+        Iterator<Map.Entry<String, String>>
+            iterA = store.readTree(a)._entries.entrySet().iterator(),
+            iterB = store.readTree(b)._entries.entrySet().iterator();
+        Map.Entry<String, String> entryA = next(iterA), entryB = next(iterB);
+        while (entryA != null || entryB != null) {
+            int c = entryA == null ? 1 : entryB == null ? -1
+                : entryA.getKey().compareTo(entryB.getKey());
+            String name = c <= 0 ? entryA.getKey() : entryB.getKey();
+            String idA = c <= 0 ? entryA.getValue() : null,
+                idB = c >= 0 ? entryB.getValue() : null;
+            if (c <= 0) {
+                entryA = next(iterA);
+            }
+            if (c >= 0) {
+                entryB = next(iterB);
+            }
+            if (name.endsWith("/")) {
+                diff(store, idA == null ? EMPTY.hash() : idA,
+                     idB == null ? EMPTY.hash() : idB, prefix + name,
+                     changes);
+            } else if (idA == null || !idA.equals(idB)) {
+                changes.put(prefix + name, new String[] { idA, idB });
+            }
+        }
+    }
+
+    /** Return the next entry of ITER, or null if there is none. */
+    private static Map.Entry<String, String> next(
+            Iterator<Map.Entry<String, String>> iter) {
+        return iter.hasNext() ? iter.next() : null;
+    }
+
+    /** Entries of this tree. */
+    private final TreeMap<String, String> _entries;
+
+    /** Id of this tree, or null if not yet computed. */
+    private String _id;
+}
@@ -3,6 +3,15 @@ import ucb.junit.textui;
 import org.junit.Test;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
 
@@ -52,6 +61,473 @@ public class UnitTest {
         }
         System.out.println(realPath);
     }
-}
 
+    /** A journal record cut short by a crash, or damaged, ends the
+     *  journal: the records before it are kept, it is truncated there,
+     *  and later changes are appended after the last good record. */
+    @Test
+    public void journalDamageTest() throws IOException {
+        File index = new File(tempDir(), "index");
+        File journal = Stage.journalFile(index);
+        Stage stage = new Stage();
+        stage.write(index);
+        stage.addToAddStage("a", ID_A);
+        stage.flush(index);
+        long good = journal.length();
+        stage.addToAddStage("b", ID_B);
+        stage.flush(index);
+        byte[] whole = Utils.readContents(journal);
+
+        try (RandomAccessFile out = new RandomAccessFile(journal, "rw")) {
+            out.setLength(good + 4);
+        }
+        assertEquals(Set.of("a"), Stage.read(index).addStage().keySet());
+        assertEquals(good, journal.length());
+
+        whole[(int) good + 3] ^= 1;
+        Utils.writeContents(journal, (Object) whole);
+        Stage read = Stage.read(index);
+        assertEquals(Set.of("a"), read.addStage().keySet());
+        assertEquals(good, journal.length());
+
+        read.addToAddStage("c", ID_B);
+        read.flush(index);
+        assertEquals(Set.of("a", "c"),
+                     Stage.read(index).addStage().keySet());
+    }
+
+    /** A journal left over from an earlier write of the index does not
+     *  apply to it, and is deleted. */
+    @Test
+    public void journalGenerationTest() throws IOException {
+        File index = new File(tempDir(), "index");
+        File journal = Stage.journalFile(index);
+        Stage stage = new Stage();
+        stage.write(index);
+        stage.addToAddStage("a", ID_A);
+        stage.flush(index);
+        byte[] stale = Utils.readContents(journal);
+        new Stage().write(index);
+        assertFalse(journal.exists());
+        Utils.writeContents(journal, (Object) stale);
+        assertTrue(Stage.read(index).addStage().isEmpty());
+        assertFalse(journal.exists());
+    }
+
+    /** The journal never grows past JOURNAL_LIMIT: the index is written
+     *  in full instead, and every change survives the switch. */
+    @Test
+    public void journalLimitTest() throws IOException {
+        File index = new File(tempDir(), "index");
+        File journal = Stage.journalFile(index);
+        Stage stage = new Stage();
+        stage.write(index);
+        boolean rewritten = false;
+        long last = 0;
+        for (int i = 0; i < 4000; i += 1) {
+            stage.addToAddStage("f" + i, ID_A);
+            if (i % 100 == 99) {
+                stage.flush(index);
+                assertTrue(journal.length() <= Stage.JOURNAL_LIMIT);
+                rewritten |= journal.length() < last;
+                last = journal.length();
+            }
+        }
+        assertTrue(rewritten);
+        assertEquals(4000, Stage.read(index).addStage().size());
+    }
 
+    /** Stat data in the journal are trusted only if recorded before the
+     *  flush that wrote them, however much later the journal was last
+     *  modified. */
+    @Test
+    public void journalStatTest() throws IOException {
+        File index = new File(tempDir(), "index");
+        File journal = Stage.journalFile(index);
+        long now = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+        long minute = TimeUnit.MINUTES.toNanos(1);
+        Stage stage = new Stage();
+        stage.write(index);
+        stage.recordStat("old", new FileStat(1, now - minute, 1, null), ID_A);
+        stage.recordStat("racy", new FileStat(1, now + minute, 2, null),
+                         ID_B);
+        stage.flush(index);
+        stage.recordStat("unflushed", new FileStat(1, now - minute, 3, null),
+                         ID_A);
+        stage.flush(index);
+        journal.setLastModified(System.currentTimeMillis()
+                                + TimeUnit.HOURS.toMillis(1));
+        Stage read = Stage.read(index);
+        assertEquals(ID_A, read.knownId("old"));
+        assertEquals(ID_A, read.knownId("unflushed"));
+        assertNull(read.knownId("racy"));
+
+        byte[] data = Utils.readContents(journal);
+        try (RandomAccessFile out = new RandomAccessFile(journal, "rw")) {
+            out.setLength(data.length - 1);
+        }
+        read = Stage.read(index);
+        assertEquals(ID_A, read.knownId("old"));
+        assertNull(read.knownId("unflushed"));
+    }
+
+    /** Commits, with a tree or with files, survive encoding and decoding
+     *  unchanged, keeping their ids. */
+    @Test
+    public void commitCodecTest() {
+        Commit initial = new Commit("initial commit", "");
+        Commit flat = new Commit("flat", "");
+        flat.addBlob("a.txt", ID_A);
+        flat.addBlob("dir/b.txt", ID_B);
+        Commit merge = new Commit("merge \u00e9t\u00e9", ID_A, ID_B);
+        merge.setParent2(ID_B);
+        for (Commit commit : List.of(initial, flat, merge)) {
+            Commit back = Commit.decode(commit.encode());
+            assertEquals(commit.msg(), back.msg());
+            assertEquals(commit.timeStampDate(), back.timeStampDate());
+            assertEquals(commit.parent1(), back.parent1());
+            assertEquals(commit.parent2(), back.parent2());
+            assertEquals(commit.getBlobs(), back.getBlobs());
+            assertEquals(commit.tree(), back.tree());
+            assertEquals(commit.hash(), back.hash());
+            assertArrayEquals(commit.encode(), back.encode());
+        }
+    }
+
+    /** Stages survive encoding and decoding unchanged. */
+    @Test
+    public void stageCodecTest() {
+        Stage stage = new Stage();
+        stage.addToAddStage("a.txt", ID_A);
+        stage.addToAddStage("dir/b.txt", ID_B);
+        stage.addToRemoveStage("gone.txt");
+        stage.recordStat("a.txt", new FileStat(3, 1000, 7, null), ID_A);
+        stage.setMonitorToken("token");
+        Stage back = Stage.decode(stage.encode());
+        assertEquals(stage.addStage(), back.addStage());
+        assertEquals(stage.rmStage(), back.rmStage());
+        assertEquals("token", back.monitorToken());
+        assertArrayEquals(stage.encode(), back.encode());
+    }
+
+    /** Commits and indexes written by Java serialization, as by older
+     *  versions, plain or compressed, are still read, and a commit keeps
+     *  the id it was stored under. */
+    @Test
+    public void legacyCodecTest() throws IOException {
+        Commit commit = new Commit("legacy", "");
+        commit.addBlob("a.txt", ID_A);
+        byte[] serialized = Utils.serialize(commit);
+        Commit back = Utils.deserialize(serialized, Commit.class);
+        assertEquals("legacy", back.msg());
+        assertEquals(commit.getBlobs(), back.getBlobs());
+        assertTrue(back.hasId(Utils.sha1(serialized)));
+        assertEquals(commit.hash(), Commit.decode(back.encode()).hash());
+
+        Stage stage = new Stage();
+        stage.addToAddStage("a.txt", ID_A);
+        stage.addToRemoveStage("gone.txt");
+        File index = new File(tempDir(), "index");
+        Utils.writeContents(index, (Object) Utils.serialize(stage));
+        assertEquals(stage.addStage(), Stage.read(index).addStage());
+        assertEquals(stage.rmStage(), Stage.read(index).rmStage());
+        Utils.writeObject(index, stage);
+        assertEquals(stage.addStage(), Stage.read(index).addStage());
+    }
+
+    /** Encodings cut short, or of unknown versions, are rejected with a
+     *  GitletException, and data that is neither encoded nor serialized
+     *  with an IllegalArgumentException. */
+    @Test
+    public void corruptCodecTest() {
+        Commit commit = new Commit("short", ID_A, ID_B);
+        Stage stage = new Stage();
+        stage.addToAddStage("a.txt", ID_A);
+        stage.recordStat("a.txt", new FileStat(3, 1000, 7, null), ID_A);
+        byte[] encoded = commit.encode();
+        for (int n = Commit.MAGIC.length + 1; n < encoded.length; n += 1) {
+            try {
+                Commit.decode(Arrays.copyOf(encoded, n));
+                fail("decoded a commit cut to " + n + " bytes");
+            } catch (GitletException excp) {
+                assertEquals("Corrupt commit.", excp.getMessage());
+            }
+        }
+        encoded[Commit.MAGIC.length] = 99;
+        try {
+            Commit.decode(encoded);
+            fail("decoded a commit of version 99");
+        } catch (GitletException excp) {
+            assertEquals("Unsupported commit version 99.", excp.getMessage());
+        }
+        encoded = stage.encode();
+        for (int n = Stage.MAGIC.length + 1; n < encoded.length; n += 1) {
+            try {
+                Stage.decode(Arrays.copyOf(encoded, n));
+                fail("decoded an index cut to " + n + " bytes");
+            } catch (GitletException excp) {
+                assertEquals("Corrupt index.", excp.getMessage());
+            }
+        }
+        boolean rejected = false;
+        try {
+            Utils.deserialize(new byte[] { 1, 2, 3 }, Commit.class);
+        } catch (IllegalArgumentException excp) {
+            rejected = true;
+        }
+        assertTrue(rejected);
+    }
+
+    /** Deltas to or from empty content, where one is made at all, give
+     *  back the target exactly; so does one between identical blobs,
+     *  which has nothing to add. */
+    @Test
+    public void deltaEdgeTest() {
+        byte[] empty = new byte[0];
+        byte[] text = numbered(0, 200, "line");
+        byte[] binary = { 0, (byte) 0xff, '\n', (byte) 0x80, '\r', 'x' };
+        byte[][] contents = { empty, text, binary };
+        for (byte[] base : contents) {
+            for (byte[] target : contents) {
+                BlobDelta delta = BlobDelta.make(ID_A, 0, base, target);
+                if (delta != null) {
+                    assertArrayEquals(target, delta.apply(base));
+                }
+            }
+        }
+        BlobDelta delta = BlobDelta.make(ID_A, 0, empty, empty);
+        assertArrayEquals(empty, delta.apply(empty));
+        delta = BlobDelta.make(ID_A, 3, text, text.clone());
+        assertEquals(ID_A, delta.base());
+        assertEquals(4, delta.depth());
+        assertArrayEquals(text, delta.apply(text));
+    }
+
+    /** A chain of MAX_DEPTH deltas, each applied to the content the one
+     *  before gives back, reproduces every version exactly; no delta is
+     *  made one deeper. */
+    @Test
+    public void deltaChainTest() {
+        byte[] version = numbered(0, 300, "line");
+        byte[] base = version;
+        List<BlobDelta> chain = new ArrayList<>();
+        for (int depth = 0; depth < BlobDelta.MAX_DEPTH; depth += 1) {
+            String text = new String(version, StandardCharsets.ISO_8859_1);
+            byte[] next = text.replace("line " + (depth * 20) + "\n",
+                                       "edited " + depth + "\n")
+                .concat("appended " + depth + "\n")
+                .getBytes(StandardCharsets.ISO_8859_1);
+            BlobDelta delta = BlobDelta.make(Utils.sha1(version), depth,
+                                             version, next);
+            assertEquals(depth + 1, delta.depth());
+            chain.add(delta);
+            version = next;
+        }
+        byte[] content = base;
+        for (BlobDelta delta : chain) {
+            content = delta.apply(content);
+        }
+        assertArrayEquals(version, content);
+        assertNull(BlobDelta.make(Utils.sha1(version), BlobDelta.MAX_DEPTH,
+                                  version, numbered(0, 301, "line")));
+    }
+
+    /** No delta is computed when the lines that differ, once a common
+     *  start and end are set aside, would need a table of more than
+     *  MAX_DIFF_CELLS; a small change within large content is still
+     *  made, and applies exactly. */
+    @Test
+    public void deltaCapTest() {
+        byte[] base = numbered(0, 2000, "old");
+        byte[] target = numbered(0, 2000, "new");
+        assertTrue(2001L * 2001L > BlobDelta.MAX_DIFF_CELLS);
+        assertNull(BlobDelta.make(ID_A, 0, base, target));
+
+        String big = new String(numbered(0, 5000, "same"),
+                                StandardCharsets.ISO_8859_1);
+        byte[] edited = big.replace("same 2500\n", "changed\n")
+            .getBytes(StandardCharsets.ISO_8859_1);
+        byte[] original = big.getBytes(StandardCharsets.ISO_8859_1);
+        BlobDelta delta = BlobDelta.make(ID_A, 0, original, edited);
+        assertArrayEquals(edited, delta.apply(original));
+    }
+
+    /** Substring queries starting or ending partway through a term find
+     *  exactly the messages containing them. */
+    @Test
+    public void messageSubstringTest() throws IOException {
+        String[] msgs = { "initial commit", "Fix parser bug", "fixed parsers",
+                          "prefix", "bugfix in parser", "parse tree" };
+        MessageIndex index = messages(tempDir(), msgs).messages();
+        for (String query : new String[] { "ix pars", "x parser b", "rse",
+                                           "fix", "ser bug", " in ",
+                                           "parser", "ixed parsers" }) {
+            assertEquals(query, containing(msgs, query),
+                         index.find(query, MessageIndex.SUBSTRING));
+        }
+    }
+
+    /** Messages that differ only in case are distinct: exact and
+     *  substring queries match case, and regular expressions may not. */
+    @Test
+    public void messageCaseTest() throws IOException {
+        String[] msgs = { "initial commit", "Add file", "add file",
+                          "ADD FILE", "then add file again" };
+        MessageIndex index = messages(tempDir(), msgs).messages();
+        assertEquals(List.of(2), index.find("add file", MessageIndex.EXACT));
+        assertEquals(List.of(3), index.find("ADD FILE", MessageIndex.EXACT));
+        for (String query : new String[] { "Add", "d file", " file ",
+                                           "add file", "D F" }) {
+            assertEquals(query, containing(msgs, query),
+                         index.find(query, MessageIndex.SUBSTRING));
+        }
+        assertEquals(List.of(1, 2, 3, 4),
+                     index.find("(?i)add file", MessageIndex.REGEX));
+    }
+
+    /** An index file behind the commit graph, ahead of it, cut short, or
+     *  with a damaged header is brought back to what it would be had it
+     *  kept up, and answers queries as that would. */
+    @Test
+    public void messageCatchUpTest() throws IOException {
+        String[] msgs = { "initial commit", "one", "two", "three", "four" };
+        File dir = tempDir();
+        File file = new File(dir, "commit-messages");
+        File graph = new File(dir, "commit-graph");
+        ObjectStore store = messages(dir, Arrays.copyOf(msgs, 3));
+        byte[] early = Utils.readContents(file);
+        byte[] earlyGraph = Utils.readContents(graph);
+        for (int k = 3; k < msgs.length; k += 1) {
+            Commit commit = new Commit(msgs[k],
+                                       store.graph().id(k - 1), ID_A);
+            store.writeCommit(commit.hash(), commit);
+        }
+        byte[] full = Utils.readContents(file);
+        byte[] fullGraph = Utils.readContents(graph);
+
+        Utils.writeContents(file, (Object) early);
+        checkMessages(dir, msgs, full);
+        Utils.writeContents(file, (Object) Arrays.copyOf(full,
+                                                         full.length - 3));
+        checkMessages(dir, msgs, full);
+        byte[] damaged = full.clone();
+        damaged[0] ^= 1;
+        Utils.writeContents(file, (Object) damaged);
+        checkMessages(dir, msgs, full);
+
+        Utils.writeContents(graph, (Object) earlyGraph);
+        checkMessages(dir, Arrays.copyOf(msgs, 3), early);
+        Utils.writeContents(graph, (Object) fullGraph);
+        checkMessages(dir, msgs, full);
+    }
+
+    /** Check that the message index of the repository whose gitlet
+     *  directory is DIR, opened afresh, gives MSGS as the messages of the
+     *  commits in its graph, and that its file then holds CONTENTS. */
+    private static void checkMessages(File dir, String[] msgs,
+                                      byte[] contents) {
+        MessageIndex index = new ObjectStore(dir).messages();
+        for (int k = 0; k < msgs.length; k += 1) {
+            assertEquals(msgs[k], index.message(k));
+            assertEquals(List.of(k), index.find(msgs[k], MessageIndex.EXACT));
+        }
+        assertArrayEquals(contents,
+                          Utils.readContents(new File(dir, "commit-messages")));
+    }
+
+    /** Return the store of the repository whose gitlet directory is DIR,
+     *  after adding to it a line of commits with messages MSGS, the first
+     *  of them a root, and loading its message index, so that the index
+     *  file is written and later commits are appended to it. */
+    private static ObjectStore messages(File dir, String... msgs) {
+        new File(dir, "com").mkdir();
+        ObjectStore store = new ObjectStore(dir);
+        String parent = "";
+        for (String msg : msgs) {
+            Commit commit = new Commit(msg, parent, ID_A);
+            store.writeCommit(commit.hash(), commit);
+            parent = commit.hash();
+        }
+        store.messages().message(0);
+        return store;
+    }
+
+    /** Return the positions of the messages in MSGS containing QUERY. */
+    private static List<Integer> containing(String[] msgs, String query) {
+        List<Integer> result = new ArrayList<>();
+        for (int k = 0; k < msgs.length; k += 1) {
+            if (msgs[k].contains(query)) {
+                result.add(k);
+            }
+        }
+        return result;
+    }
+
+    /** The state a server compares before each command, to tell whether
+     *  its Repo is still current, changes whenever the ignore file of the
+     *  working tree does, whose rules the Repo keeps once read. */
+    @Test
+    public void serverIgnoreTest() throws IOException {
+        File root = tempDir();
+        File mainDir = new File(root, ".gitlet");
+        assertTrue(mainDir.mkdir());
+        Server server = new Server(mainDir);
+        File ignore = new File(root, WorkTree.IGNORE_FILE);
+        String state = server.state();
+        Utils.writeContents(ignore, "*.log\n");
+        assertFalse(state.equals(server.state()));
+        state = server.state();
+        Utils.writeContents(ignore, "*.txt\n");
+        ignore.setLastModified(ignore.lastModified() + 1000);
+        assertFalse(state.equals(server.state()));
+        state = server.state();
+        ignore.delete();
+        assertFalse(state.equals(server.state()));
+        mainDir.delete();
+    }
+
+    /** Paths under an ignored directory are neither listed nor entered,
+     *  and edited ignore rules apply once the old ones are invalidated. */
+    @Test
+    public void ignoreTest() throws IOException {
+        File root = tempDir();
+        File ignore = new File(root, WorkTree.IGNORE_FILE);
+        Utils.writeContents(ignore, "build/\n*.log\n");
+        WorkTree work = new WorkTree(root);
+        assertTrue(work.entered(""));
+        assertTrue(work.entered("src/main"));
+        assertFalse(work.entered("build"));
+        assertFalse(work.entered("src/build/deep"));
+        assertFalse(work.entered(".gitlet/com"));
+        assertTrue(work.listed("src/a.txt"));
+        assertFalse(work.listed("src/build/deep/a.txt"));
+        assertFalse(work.listed("src/a.log"));
+        Utils.writeContents(ignore, "*.txt\n");
+        assertFalse(work.entered("build"));
+        work.invalidate();
+        assertTrue(work.entered("build"));
+        assertTrue(work.listed("build/deep/a.log"));
+        assertFalse(work.listed("build/a.txt"));
+        ignore.delete();
+    }
+
+    /** Return the lines "WORD FROM" to "WORD TO - 1", each ended by a
+     *  newline. */
+    private static byte[] numbered(int from, int to, String word) {
+        StringBuilder result = new StringBuilder();
+        for (int i = from; i < to; i += 1) {
+            result.append(word).append(' ').append(i).append('\n');
+        }
+        return result.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /** Return a new empty directory, deleted on exit if still empty. */
+    private static File tempDir() throws IOException {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    /** Blob ids used in tests. */
+    private static final String ID_A = Utils.sha1("a"), ID_B = Utils.sha1("b");
+}
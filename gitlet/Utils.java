@@ -2,14 +2,18 @@
  * University of California.  All rights reserved. */
 package gitlet;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -17,8 +21,10 @@ import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.Formatter;
 import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 
 /** Assorted utilities.
@@ -34,25 +40,17 @@ class Utils {
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (Object val : vals) {
-                if (val instanceof byte[]) {
-                    md.update((byte[]) val);
-                } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
-                } else {
-                    throw new IllegalArgumentException("improper type to sha1");
-                }
+        MessageDigest md = sha1Digest();
+        for (Object val : vals) {
+            if (val instanceof byte[]) {
+                md.update((byte[]) val);
+            } else if (val instanceof String) {
+                md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+            } else {
+                throw new IllegalArgumentException("improper type to sha1");
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
-            }
-            return result.toString();
-        } catch (NoSuchAlgorithmException excp) {
-            throw new IllegalArgumentException("System does not support SHA-1");
         }
+        return bytesToHex(md.digest());
     }
 
     /** Returns the SHA-1 hash of the concatenation of the strings in
@@ -61,6 +59,36 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Returns a fresh SHA-1 message digest. */
+    static MessageDigest sha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Returns the bytes denoted by the hexadecimal numeral HEX, which must
+     *  have an even number of digits. */
+    static byte[] hexToBytes(String hex) {
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = (byte) Integer.parseInt(hex.substring(2 * i,
+                                                              2 * i + 2), 16);
+        }
+        return result;
+    }
+
+    /** Returns BYTES as a lower-case hexadecimal numeral. */
+    static String bytesToHex(byte[] bytes) {
+        StringBuilder result = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            result.append(Character.forDigit((b >> 4) & 0xf, 16));
+            result.append(Character.forDigit(b & 0xf, 16));
+        }
+        return result.toString();
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -135,26 +163,109 @@ class Utils {
     }
 
     /** Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
-     *  Throws IllegalArgumentException in case of problems. */
+     *  FILE may be compressed or not (see writeObject).  Throws
+     *  IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
                                                  Class<T> expectedClass) {
         try {
-            ObjectInputStream in =
-                new ObjectInputStream(new FileInputStream(file));
-            T result = expectedClass.cast(in.readObject());
-            in.close();
-            return result;
+            return readObject(new FileInputStream(file), expectedClass);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return an object of type T read from the stream IN, casting it to
+     *  EXPECTEDCLASS, and close IN.  If the stream starts with
+     *  DEFLATE_MARKER, the rest is inflated as it is read; otherwise it is
+     *  taken to be a plain serialized object.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T readObject(InputStream in,
+                                                 Class<T> expectedClass) {
+        try (InputStream str = openObject(in);
+             ObjectInputStream objIn = new ObjectInputStream(str)) {
+            return expectedClass.cast(objIn.readObject());
         } catch (IOException | ClassCastException
                  | ClassNotFoundException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
     }
 
-    /** Write OBJ to FILE. */
+    /** Return an object of type T deserialized from DATA, casting it to
+     *  EXPECTEDCLASS.  DATA may be compressed or not.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T deserialize(byte[] data,
+                                                  Class<T> expectedClass) {
+        return readObject(new ByteArrayInputStream(data), expectedClass);
+    }
+
+    /** Write OBJ to FILE, deflating it as it is serialized.  The result
+     *  starts with DEFLATE_MARKER so that readObject can tell it from an
+     *  uncompressed object. */
     static void writeObject(File file, Serializable obj) {
-        writeContents(file, serialize(obj));
+        Deflater deflater = new Deflater(DEFLATE_LEVEL);
+        try (OutputStream out = new BufferedOutputStream(
+                 Files.newOutputStream(file.toPath()))) {
+            out.write(DEFLATE_MARKER);
+            DeflaterOutputStream def = new DeflaterOutputStream(out, deflater);
+            ObjectOutputStream objOut = new ObjectOutputStream(def);
+            objOut.writeObject(obj);
+            objOut.flush();
+            def.finish();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** Write DATA to FILE, deflated and preceded by DEFLATE_MARKER. */
+    static void writeCompressed(File file, byte[] data) {
+        Deflater deflater = new Deflater(DEFLATE_LEVEL);
+        try (OutputStream out = new BufferedOutputStream(
+                 Files.newOutputStream(file.toPath()))) {
+            out.write(DEFLATE_MARKER);
+            DeflaterOutputStream def = new DeflaterOutputStream(out, deflater);
+            def.write(data);
+            def.finish();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** Return all bytes of the stored object in IN, inflated if IN starts
+     *  with DEFLATE_MARKER, and close IN. */
+    static byte[] readStored(InputStream in) {
+        try (InputStream str = openObject(in)) {
+            return str.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
 
+    /** Return a stream delivering the serialized object in IN, inflating
+     *  it if it starts with DEFLATE_MARKER. */
+    private static InputStream openObject(InputStream in) throws IOException {
+        BufferedInputStream buf = new BufferedInputStream(in);
+        buf.mark(DEFLATE_MARKER.length);
+        byte[] head = buf.readNBytes(DEFLATE_MARKER.length);
+        if (Arrays.equals(head, DEFLATE_MARKER)) {
+            return new InflaterInputStream(buf);
+        }
+        buf.reset();
+        return buf;
+    }
+
+    /** Leading bytes of a compressed object.  A plain serialized object
+     *  always starts with 0xACED, so the two cannot be confused. */
+    static final byte[] DEFLATE_MARKER = { 'G', 'Z', 1 };
+
+    /** Compression level used for objects.  Level 1 gets most of the size
+     *  reduction of the default level for source text at a fraction of the
+     *  CPU cost. */
+    private static final int DEFLATE_LEVEL = Deflater.BEST_SPEED;
+
     /* DIRECTORIES */
 
     /** Filter out all but plain files. */
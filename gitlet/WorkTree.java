@@ -0,0 +1,326 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/** The working tree: all plain files below a root directory, named by
+ *  their slash-separated paths relative to the root.  Directories are
+ *  scanned in parallel, one fork-join task per directory, so that large
+ *  trees are listed using all cores.  Directories named .gitlet and
+ *  anything matched by the root's ignore file are skipped.
+ *
+ *  Each non-blank line of the ignore file that does not start with '#' is
+ *  a glob pattern.  A pattern containing no '/' is matched against the
+ *  names of files and directories at any depth; otherwise it is matched
+ *  against the whole path, with any leading '/' removed.  A pattern
+ *  ending in '/' matches only directories.
+ *
+ *  When a Monitor is running for the repository, the list of files is
+ *  kept between commands in a snapshot, and only the paths the monitor
+ *  reports as changed since the snapshot are examined.
+ *  @author Austin Nicola Ardisaputra
+ */
+class WorkTree {
+
+    /** Name of the ignore file in the root directory. */
+    static final String IGNORE_FILE = ".gitletignore";
+
+    /** A working tree rooted at ROOT. */
+    WorkTree(File root) {
+        this(root, null);
+    }
+
+    /** A working tree rooted at ROOT, belonging to the repository whose
+     *  gitlet directory is MAINDIR, whose monitor it uses if one is
+     *  running.  MAINDIR may be null. */
+    WorkTree(File root, File mainDir) {
+        _root = root.toPath();
+        _snapshot = mainDir == null ? null
+            : Utils.join(mainDir, "monitor", "files");
+        _mainDir = mainDir;
+    }
+
+    /** Deliver the path of every file in the working tree to SINK as it
+     *  is found.  SINK is called from several threads at once, in no
+     *  particular order. */
+    void walk(Consumer<String> sink) {
+        loadIgnores();
+        ForkJoinPool.commonPool().invoke(new Scan(_root, "", sink));
+    }
+
+    /** Return the paths of all files in the working tree, sorted.  The
+     *  tree is scanned in full unless a running monitor can say what
+     *  changed since the last snapshot. */
+    List<String> files() {
+        if (_mainDir == null || !_mainDir.isDirectory()) {
+            return scan();
+        }
+        String since = null;
+        TreeSet<String> known = null;
+        if (_snapshot.isFile()) {
+            Codec.Reader in = new Codec.Reader(
+                Utils.readContents(_snapshot), SNAPSHOT_MAGIC);
+            since = in.string();
+            known = new TreeSet<>();
+            for (int n = in.varint(); n > 0; n -= 1) {
+                known.add(in.string());
+            }
+        }
+        Monitor.Query query = Monitor.query(_mainDir, since);
+        if (query == null) {
+            _snapshot.delete();
+            return scan();
+        }
+        Set<String> changed = query.changed();
+        List<String> result;
+        if (known == null || changed == null
+            || changed.contains(IGNORE_FILE)) {
+            result = scan();
+        } else {
+            for (String path : changed) {
+                refresh(known, path);
+            }
+            result = new ArrayList<>(known);
+        }
+        if (!query.token().equals(since)) {
+            Codec.Writer out = new Codec.Writer(SNAPSHOT_MAGIC, 1);
+            out.string(query.token()).varint(result.size());
+            for (String path : result) {
+                out.string(path);
+            }
+            Utils.writeContents(_snapshot, out.toByteArray());
+        }
+        return result;
+    }
+
+    /** Bring the entries of KNOWN at or below PATH up to date.  Nothing
+     *  in an ignored directory is added, whichever part of PATH names
+     *  it. */
+    private void refresh(TreeSet<String> known, String path) {
+        known.remove(path);
+        known.subSet(path + "/", path + "0").clear();
+        Path full = _root.resolve(path);
+        if (Files.isDirectory(full, LinkOption.NOFOLLOW_LINKS)) {
+            if (entered(path)) {
+                Set<String> found = ConcurrentHashMap.newKeySet();
+                ForkJoinPool.commonPool().invoke(
+                    new Scan(full, path + "/", found::add));
+                known.addAll(found);
+            }
+        } else if (Files.isRegularFile(full) && listed(path)) {
+            known.add(path);
+        }
+    }
+
+    /** Return the paths of all files in the working tree, sorted, by
+     *  scanning all of it. */
+    private List<String> scan() {
+        ConcurrentLinkedQueue<String> found = new ConcurrentLinkedQueue<>();
+        walk(found::add);
+        List<String> result = new ArrayList<>(found);
+        result.sort(null);
+        return result;
+    }
+
+    /** Return true iff a scan would list a file at PATH: it is not in a
+     *  .gitlet directory, and neither it nor any directory containing it
+     *  is matched by the ignore file. */
+    boolean listed(String path) {
+        int slash = path.lastIndexOf('/');
+        return entered(slash < 0 ? "" : path.substring(0, slash))
+            && !ignored(path, path.substring(slash + 1), false);
+    }
+
+    /** Return true iff a scan would look inside the directory at PATH,
+     *  which is "" for the root: neither it nor any directory containing
+     *  it is a .gitlet directory or matched by the ignore file. */
+    boolean entered(String path) {
+        for (int start = 0; start < path.length();) {
+            int slash = path.indexOf('/', start);
+            int end = slash < 0 ? path.length() : slash;
+            String name = path.substring(start, end);
+            if (name.equals(".gitlet")
+                || ignored(path.substring(0, end), name, true)) {
+                return false;
+            }
+            start = end + 1;
+        }
+        return true;
+    }
+
+    /** Return the paths among FILES, which are paths of working files,
+     *  selected by SPEC: every file below SPEC if it names a directory
+     *  ("." names the root), and otherwise the files matching SPEC as a
+     *  glob pattern, matched as in the ignore file. */
+    List<String> matching(List<String> files, String spec) {
+        String norm = Paths.get(spec).normalize().toString()
+            .replace(File.separatorChar, '/');
+        List<String> result = new ArrayList<>();
+        if (Files.isDirectory(_root.resolve(norm))) {
+            String prefix = norm.isEmpty() ? "" : norm + "/";
+            for (String path : files) {
+                if (path.startsWith(prefix)) {
+                    result.add(path);
+                }
+            }
+            return result;
+        }
+        Rule rule = new Rule(norm);
+        for (String path : files) {
+            String name = path.substring(path.lastIndexOf('/') + 1);
+            if (rule._matcher.matches(Paths.get(rule._anchored
+                                                ? path : name))) {
+                result.add(path);
+            }
+        }
+        return result;
+    }
+
+    /** Return true iff the file or directory (according to DIR) named
+     *  NAME, whose path is PATH, is matched by the ignore file. */
+    boolean ignored(String path, String name, boolean dir) {
+        loadIgnores();
+        for (Rule rule : _rules) {
+            if ((dir || !rule._dirOnly)
+                && rule._matcher.matches(Paths.get(rule._anchored
+                                                   ? path : name))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Forget the ignore rules, so that the ignore file is read again
+     *  when they are next needed. */
+    void invalidate() {
+        _rules = null;
+    }
+
+    /** Read the ignore file, if any and not already read. */
+    private void loadIgnores() {
+        if (_rules != null) {
+            return;
+        }
+        List<Rule> rules = new ArrayList<>();
+        File file = _root.resolve(IGNORE_FILE).toFile();
+        if (file.isFile()) {
+            for (String line : Utils.readContentsAsString(file)
+                     .split("\r?\n")) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    rules.add(new Rule(line));
+                }
+            }
+        }
+        _rules = rules;
+    }
+
+    /** One pattern of the ignore file. */
+    private static class Rule {
+
+        /** The rule for PATTERN, a line of the ignore file. */
+        Rule(String pattern) {
+            _dirOnly = pattern.endsWith("/");
+            if (_dirOnly) {
+                pattern = pattern.substring(0, pattern.length() - 1);
+            }
+            _anchored = pattern.contains("/");
+            if (pattern.startsWith("/")) {
+                pattern = pattern.substring(1);
+            }
+            _matcher = FileSystems.getDefault()
+                .getPathMatcher("glob:" + pattern);
+        }
+
+        /** Matcher for the pattern. */
+        private final PathMatcher _matcher;
+
+        /** True iff the pattern applies only to directories. */
+        private final boolean _dirOnly;
+
+        /** True iff the pattern is matched against whole paths. */
+        private final boolean _anchored;
+    }
+
+    /** The task of scanning one directory, which forks a task for each
+     *  of its subdirectories. */
+    private class Scan extends RecursiveAction {
+
+        /** A task delivering to SINK the files in DIR, whose paths are
+         *  their names preceded by PREFIX. */
+        Scan(Path dir, String prefix, Consumer<String> sink) {
+            _dir = dir;
+            _prefix = prefix;
+            _sink = sink;
+        }
+
+        @Override
+        protected void compute() {
+            List<Scan> subdirs = new ArrayList<>();
+            try (DirectoryStream<Path> entries =
+                     Files.newDirectoryStream(_dir)) {
+                for (Path entry : entries) {
+                    String name = entry.getFileName().toString();
+                    String path = _prefix + name;
+                    if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                        if (!name.equals(".gitlet")
+                            && !ignored(path, name, true)) {
+                            Scan sub = new Scan(entry, path + "/", _sink);
+                            sub.fork();
+                            subdirs.add(sub);
+                        }
+                    } else if (Files.isRegularFile(entry)
+                               && !ignored(path, name, false)) {
+                        _sink.accept(path);
+                    }
+                }
+            } catch (IOException excp) {
+                /* An unreadable directory contributes what was listed. */
+            }
+            for (Scan sub : subdirs) {
+                sub.join();
+            }
+        }
+
+        /** Directory to scan. */
+        private final Path _dir;
+
+        /** Path of _dir followed by '/', or empty for the root. */
+        private final String _prefix;
+
+        /** Receiver of file paths. */
+        private final Consumer<String> _sink;
+    }
+
+    /** Leading bytes of a snapshot file. */
+    private static final byte[] SNAPSHOT_MAGIC = { 'G', 'W', 'T' };
+
+    /** Root directory. */
+    private final Path _root;
+
+    /** The gitlet directory, or null if the monitor is not used. */
+    private final File _mainDir;
+
+    /** File holding the monitor token and file list of the last scan,
+     *  or null if the monitor is not used. */
+    private final File _snapshot;
+
+    /** Rules read from the ignore file, or null if not yet read. */
+    private volatile List<Rule> _rules;
+}